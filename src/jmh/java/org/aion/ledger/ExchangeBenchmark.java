@@ -0,0 +1,124 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.application.SignRequest;
+import org.aion.ledger.application.SignResult;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link LedgerDevice#exchange(byte[])} round-trips against in-process
+ * devices, no hardware required. The loopback device isolates host side
+ * overhead (framing, buffering, decoding), the emulator adds the cost of
+ * the emulated application.
+ *
+ * Both devices allocate to produce their responses, so compare the
+ * gc.alloc.rate.norm of the exchange variants against each other rather
+ * than against zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangeBenchmark {
+
+    // get public key sized command, and the largest single APDU
+    @Param({"21", "255"})
+    public int dataLength;
+
+    private static final int BATCH_SIZE = 16;
+
+    private LoopbackLedgerDevice loopback;
+    private AionApp emulatedApp;
+    private byte[] command;
+    private byte[] response;
+    private byte[] publicKey;
+    private byte[] address;
+    private byte[] payload;
+    private List<SignRequest> batch;
+
+    @Setup
+    public void setup() {
+        loopback = new LoopbackLedgerDevice(APDUFramer.USB);
+        emulatedApp = new AionApp(new AionAppEmulator(new byte[32]));
+
+        command = new byte[5 + dataLength];
+        command[0] = (byte) 0xe0;
+        command[1] = 0x02;
+        command[4] = (byte) dataLength;
+        response = new byte[command.length];
+        publicKey = new byte[32];
+        address = new byte[32];
+
+        // sign commands carry the 20 byte path and a length byte ahead of the payload
+        payload = new byte[Math.max(1, dataLength - 21)];
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new SignRequest(i, payload));
+        }
+    }
+
+    @Benchmark
+    public byte[] loopbackExchange() throws CommsException {
+        return loopback.exchange(command);
+    }
+
+    @Benchmark
+    public int loopbackExchangeIntoBuffer() throws CommsException {
+        return loopback.exchange(command, 0, command.length, response, 0);
+    }
+
+    @Benchmark
+    public int loopbackExchangeView() throws CommsException {
+        loopback.acquire();
+        try {
+            return loopback.exchangeView(command, 0, command.length).remaining();
+        } finally {
+            loopback.release();
+        }
+    }
+
+    @Benchmark
+    public KeyAddress emulatorGetPublicKey() throws CommsException {
+        return emulatedApp.getPublicKey(0);
+    }
+
+    @Benchmark
+    public byte[] emulatorGetPublicKeyIntoBuffers() throws CommsException {
+        emulatedApp.getPublicKey(0, publicKey, address);
+        return address;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void emulatorSignSequential(final Blackhole bh) throws CommsException {
+        for (SignRequest request : batch) {
+            bh.consume(emulatedApp.signPayload(request.getOffset(), request.getPayload()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<SignResult> emulatorSignBatch() {
+        return emulatedApp.signBatch(batch);
+    }
+}
@@ -0,0 +1,76 @@
+package org.aion.ledger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.aion.ledger.Constants.CHANNEL;
+import static org.aion.ledger.Constants.PACKET_SIZE;
+
+/**
+ * Frame encoding and response decoding, allocating and preallocated variants
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+
+    @Param({"26", "260", "1024", "8192"})
+    public int payloadSize;
+
+    private byte[] command;
+    private byte[] framed;
+    private byte[] out;
+    private APDUResponseDecoder decoder;
+
+    @Setup
+    public void setup() {
+        command = new byte[payloadSize];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = (byte) i;
+        }
+
+        // responses are framed identically to commands
+        framed = APDUWrapper.wrapCommandAPDU(CHANNEL, command, false);
+        out = new byte[framed.length];
+        decoder = new APDUResponseDecoder(CHANNEL, false);
+    }
+
+    @Benchmark
+    public byte[] wrapAllocating() {
+        return APDUWrapper.wrapCommandAPDU(CHANNEL, command, false);
+    }
+
+    @Benchmark
+    public int wrapPreallocated() {
+        return APDUWrapper.wrapCommandAPDU(CHANNEL, command, 0, command.length, false, out, 0);
+    }
+
+    @Benchmark
+    public byte[] unwrapAllocating() throws APDUWrapper.DeserializationException {
+        return APDUWrapper.unwrapResponseAPDU(CHANNEL, framed, false);
+    }
+
+    @Benchmark
+    public int decodeIncremental() throws APDUWrapper.DeserializationException {
+        decoder.reset();
+        int offset = 0;
+        while (!decoder.decode(framed, offset)) {
+            offset += PACKET_SIZE;
+        }
+        return decoder.getResponseLength();
+    }
+}
@@ -0,0 +1,68 @@
+package org.aion.ledger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex encoding and decoding in {@link LedgerUtilities}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+    // address, signature and a bulk dump
+    @Param({"32", "64", "4096"})
+    public int size;
+
+    private byte[] bytes;
+    private String hex;
+    private byte[] decoded;
+    private StringBuilder builder;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[size];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        hex = LedgerUtilities.bytesToHex(bytes);
+        decoded = new byte[size];
+        builder = new StringBuilder(size * 2);
+    }
+
+    @Benchmark
+    public String encodeToString() {
+        return LedgerUtilities.bytesToHex(bytes);
+    }
+
+    @Benchmark
+    public int encodeToBuilder() {
+        builder.setLength(0);
+        return LedgerUtilities.appendHex(builder, bytes, 0, bytes.length).length();
+    }
+
+    @Benchmark
+    public byte[] decodeAllocating() {
+        return LedgerUtilities.hexToBytes(hex);
+    }
+
+    @Benchmark
+    public int decodeIntoBuffer() {
+        return LedgerUtilities.hexToBytes(hex, 0, hex.length(), decoded, 0);
+    }
+}
@@ -0,0 +1,162 @@
+package org.aion.ledger;
+
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange latency per transport. {@code pipe} runs the hidraw transport
+ * against an in-process echo over pipes, measuring the host side cost of
+ * the NIO path. {@code hidraw} and {@code hidapi} need a Ledger attached
+ * with the Aion app open, run them with {@code -p transport=hidraw,hidapi}
+ * to compare the two against real hardware.
+ *
+ * {@code replay} serves a session recorded with {@link LedgerRecorder} at
+ * its original timing, given by {@code -Dledger.replay=<file>} (the session
+ * must consist of app configuration exchanges). Without it a session is
+ * recorded against the emulator first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+    @Param({"pipe"})
+    public String transport;
+
+    private LedgerDevice device;
+    private Thread echo;
+    private LedgerReplay replay;
+    private final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+    private byte[] response;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (transport) {
+            case "pipe":
+                final Pipe hostToDevice = Pipe.open();
+                final Pipe deviceToHost = Pipe.open();
+                device = new LedgerHidraw(deviceToHost.source(), hostToDevice.sink(), APDUFramer.USB);
+                echo = new Thread(() -> echo(hostToDevice.source(), deviceToHost.sink()), "echo");
+                echo.setDaemon(true);
+                echo.start();
+                break;
+            case "hidraw":
+                final List<Path> paths = LedgerHidraw.findDevices();
+                if (paths.isEmpty()) {
+                    throw new IllegalStateException("no hidraw ledger attached");
+                }
+                device = new LedgerHidraw(paths.get(0));
+                break;
+            case "hidapi":
+                device = LedgerUtilities.findLedgerDevice();
+                if (device == null) {
+                    throw new IllegalStateException("no hidapi ledger attached");
+                }
+                break;
+            case "replay":
+                replay = new LedgerReplay(recording());
+                device = replay;
+                break;
+            default:
+                throw new IllegalArgumentException(transport);
+        }
+
+        response = new byte[64];
+    }
+
+    @Nonnull
+    private Path recording() throws IOException {
+        final String log = System.getProperty("ledger.replay");
+        if (log != null) {
+            return Paths.get(log);
+        }
+
+        final Path path = Files.createTempFile("transport", ".rec");
+        path.toFile().deleteOnExit();
+        final AionAppEmulator emulator = new AionAppEmulator(new byte[16]);
+        emulator.setPacketLatency(100, 0, TimeUnit.MICROSECONDS);
+        final LedgerRecorder recorder = new LedgerRecorder(emulator, path);
+        try {
+            recorder.exchange(command, 0, command.length, new byte[64], 0);
+        } catch (CommsException e) {
+            throw new IOException(e);
+        } finally {
+            recorder.close();
+        }
+        return path;
+    }
+
+    @TearDown
+    public void teardown() {
+        device.close();
+        if (echo != null) {
+            echo.interrupt();
+        }
+    }
+
+    private static void echo(final Pipe.SourceChannel in, final Pipe.SinkChannel out) {
+        final APDUResponseDecoder commands = APDUFramer.USB.newDecoder();
+        final ByteBuffer report = ByteBuffer.allocate(1 + Constants.PACKET_SIZE);
+        final byte[] frame = new byte[Constants.PACKET_SIZE];
+        try {
+            while (true) {
+                report.clear();
+                while (report.hasRemaining()) {
+                    if (in.read(report) < 0) {
+                        return;
+                    }
+                }
+
+                // strip the report id
+                System.arraycopy(report.array(), 1, frame, 0, frame.length);
+                if (commands.decode(frame, 0)) {
+                    final byte[] command = commands.toByteArray();
+                    commands.reset();
+                    final byte[] reply = new byte[command.length + 2];
+                    System.arraycopy(command, 0, reply, 0, command.length);
+                    reply[command.length] = (byte) 0x90;
+                    out.write(ByteBuffer.wrap(APDUFramer.USB.wrap(reply)));
+                }
+            }
+        } catch (Exception e) {
+            // pipe closed
+        }
+    }
+
+    /**
+     * Smallest round trip, a single frame each way. Against hardware the
+     * app configuration is returned.
+     */
+    @Benchmark
+    public int exchange() throws CommsException {
+        if (replay != null && replay.isExhausted()) {
+            replay.rewind();
+        }
+        return device.exchange(command, 0, command.length, response, 0);
+    }
+}
@@ -0,0 +1,81 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.APDUFramer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BIP32 path and APDU command construction in {@link AionApp}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBuilderBenchmark {
+
+    private final byte[] payload = new byte[128];
+    private final byte[] out = new byte[512];
+    private final CommandTemplate.Framed framedPublicKey = CommandTemplate.publicKey(0, 0).frame(APDUFramer.USB);
+    private int offset;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+    }
+
+    private int nextOffset() {
+        offset = (offset + 1) & 0x0FFFFFFF;
+        return offset;
+    }
+
+    @Benchmark
+    public byte[] bip32Path() {
+        return AionApp.generateBip32Path(nextOffset());
+    }
+
+    @Benchmark
+    public byte[] publicKeyCommand() {
+        return AionApp.publicKeyAPDUCommand(AionApp.generateBip32Path(nextOffset()));
+    }
+
+    @Benchmark
+    public int publicKeyCommandInPlace() {
+        return AionApp.writePublicKeyAPDUCommand(nextOffset(), out);
+    }
+
+    @Benchmark
+    public int publicKeyCommandFramed() {
+        // for comparison with framedPublicKeyPatch, framing included
+        final int length = AionApp.writePublicKeyAPDUCommand(nextOffset(), out);
+        return APDUFramer.USB.wrap(out, 0, length, out, 256);
+    }
+
+    @Benchmark
+    public byte[] framedPublicKeyPatch() {
+        return framedPublicKey.patch(nextOffset());
+    }
+
+    @Benchmark
+    public byte[] signPayloadCommand() {
+        return AionApp.signPayloadAPDUCommand(AionApp.generateBip32Path(nextOffset()), payload);
+    }
+
+    @Benchmark
+    public int signPayloadCommandInPlace() {
+        return AionApp.writeSignPayloadAPDUCommand(nextOffset(), payload, out);
+    }
+}
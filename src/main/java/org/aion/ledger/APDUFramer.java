@@ -0,0 +1,165 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+import static org.aion.ledger.Constants.CHANNEL;
+import static org.aion.ledger.Constants.PACKET_SIZE;
+
+/**
+ * Frames commands and unframes responses for a transport with a given
+ * frame size (MTU). USB HID transports use fixed {@link Constants#PACKET_SIZE}
+ * frames, BLE transports negotiate their MTU per connection, larger frames
+ * mean fewer round-trips for big payloads.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class APDUFramer {
+
+    // frame size must accommodate the largest header and at least one byte of data
+    private static final int MIN_PACKET_SIZE = APDUWrapper.USB_HEADER_SIZE + APDUWrapper.TOTAL_LENGTH_SIZE + 1;
+
+    // sequence indices are encoded as a short
+    private static final int MAX_FRAMES = 0xFFFF;
+
+    /**
+     * Framer for USB HID transports, {@link Constants#PACKET_SIZE} byte frames
+     */
+    public static final APDUFramer USB = new APDUFramer(CHANNEL, PACKET_SIZE, false);
+
+    private final int channel;
+    private final int packetSize;
+    private final boolean ble;
+
+    /**
+     * @param channel channel id (ignored for BLE)
+     * @param packetSize size of each frame, for BLE this is the negotiated MTU
+     *                   less any link layer overhead
+     * @param ble whether the BLE header layout (no channel) is used
+     */
+    public APDUFramer(final int channel, final int packetSize, final boolean ble) {
+        if (packetSize < MIN_PACKET_SIZE) {
+            throw new IllegalArgumentException("packetSize must be >= " + MIN_PACKET_SIZE);
+        }
+        this.channel = channel;
+        this.packetSize = packetSize;
+        this.ble = ble;
+    }
+
+    /**
+     * Framer for BLE transports with the given negotiated frame size
+     */
+    @Nonnull
+    public static APDUFramer ble(final int packetSize) {
+        return new APDUFramer(CHANNEL, packetSize, true);
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    public boolean isBle() {
+        return ble;
+    }
+
+    /**
+     * @return offset of the command within the first frame, past the frame
+     * header and the command length
+     */
+    int commandOffset() {
+        return APDUWrapper.headerSize(0, ble);
+    }
+
+    /**
+     * @return position, within the framed command, of byte {@code index} of
+     * the command, so that framed commands can be patched in place
+     */
+    public int framedPosition(final int index) {
+        final int firstHeader = APDUWrapper.headerSize(0, ble);
+        if (index < packetSize - firstHeader) {
+            return firstHeader + index;
+        }
+
+        final int header = APDUWrapper.headerSize(1, ble);
+        final int rest = index - (packetSize - firstHeader);
+        final int capacity = packetSize - header;
+        return (1 + rest / capacity) * packetSize + header + rest % capacity;
+    }
+
+    /**
+     * @return number of frames needed to send {@code commandLength} bytes of command
+     */
+    public int frameCount(final int commandLength) {
+        final int frames = APDUWrapper.frameCount(commandLength, packetSize, ble);
+        if (frames > MAX_FRAMES) {
+            throw new IllegalArgumentException("command of " + commandLength + " bytes needs more than " + MAX_FRAMES + " frames");
+        }
+        return frames;
+    }
+
+    /**
+     * @return number of bytes needed to hold the framed command
+     */
+    public int framedLength(final int commandLength) {
+        return frameCount(commandLength) * packetSize;
+    }
+
+    /**
+     * Frames {@code command} into {@code out} in a single pass.
+     *
+     * @see APDUWrapper#wrapCommandAPDU(int, byte[], int, int, boolean, byte[], int)
+     * @return number of bytes written, a multiple of {@link #getPacketSize()}
+     */
+    public int wrap(@Nonnull final byte[] command,
+                    final int commandOffset,
+                    final int commandLength,
+                    @Nonnull final byte[] out,
+                    final int outOffset) {
+        frameCount(commandLength);
+        return APDUWrapper.wrapCommandAPDU(channel, command, commandOffset, commandLength, packetSize, ble, out, outOffset);
+    }
+
+    /**
+     * Frames {@code command} into {@code out}, advancing its position.
+     *
+     * @see APDUWrapper#wrapCommandAPDU(int, byte[], boolean, ByteBuffer)
+     * @return number of bytes written, a multiple of {@link #getPacketSize()}
+     */
+    public int wrap(@Nonnull final byte[] command, @Nonnull final ByteBuffer out) {
+        frameCount(command.length);
+        return APDUWrapper.wrapCommandAPDU(channel, command, packetSize, ble, out);
+    }
+
+    @Nonnull
+    public byte[] wrap(@Nonnull final byte[] command) {
+        final byte[] out = new byte[framedLength(command.length)];
+        wrap(command, 0, command.length, out, 0);
+        return out;
+    }
+
+    /**
+     * @return the response, or {@code null} if {@code data} does not yet contain the full response
+     */
+    @Nullable
+    public byte[] unwrap(@Nonnull final byte[] data) throws APDUWrapper.DeserializationException {
+        return APDUWrapper.unwrapResponseAPDU(channel, data, packetSize, ble);
+    }
+
+    /**
+     * @return a new incremental decoder for responses framed by this framer
+     */
+    @Nonnull
+    public APDUResponseDecoder newDecoder() {
+        return new APDUResponseDecoder(channel, packetSize, ble);
+    }
+
+    @Override
+    public String toString() {
+        return "APDUFramer{channel=" + channel + ", packetSize=" + packetSize + ", ble=" + ble + "}";
+    }
+}
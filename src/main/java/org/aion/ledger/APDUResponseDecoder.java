@@ -0,0 +1,110 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+import static org.aion.ledger.Constants.PACKET_SIZE;
+
+/**
+ * Stateful reassembler for framed response APDUs. Frames are fed one at a
+ * time as they are read from the device, headers are validated in place
+ * and payloads are copied directly into their final position, so every
+ * byte of the response is only looked at once.
+ *
+ * The backing response buffer is retained across {@link #reset()} calls,
+ * a single decoder can therefore be reused for many exchanges.
+ *
+ * @implNote this class is not thread-safe
+ */
+public class APDUResponseDecoder {
+
+    private final int channel;
+    private final int packetSize;
+    private final boolean ble;
+
+    private byte[] response = new byte[0];
+
+    // -1 indicates that the first frame has not yet been seen
+    private int responseLength = -1;
+    private int written;
+    private int sequenceIdx;
+
+    public APDUResponseDecoder(final int channel, final boolean ble) {
+        this(channel, PACKET_SIZE, ble);
+    }
+
+    /**
+     * @param channel expected channel id (ignored for BLE)
+     * @param packetSize size of each frame, see {@link APDUFramer}
+     * @param ble whether the BLE header layout (no channel) is used
+     */
+    public APDUResponseDecoder(final int channel, final int packetSize, final boolean ble) {
+        this.channel = channel;
+        this.packetSize = packetSize;
+        this.ble = ble;
+    }
+
+    /**
+     * Prepares the decoder for a new response, the underlying buffer is retained
+     */
+    public void reset() {
+        this.responseLength = -1;
+        this.written = 0;
+        this.sequenceIdx = 0;
+    }
+
+    /**
+     * Feeds the next frame of the response to the decoder.
+     *
+     * @param packet buffer containing the frame
+     * @param offset offset of the frame within {@code packet}
+     * @return {@code true} if the response is complete, {@code false} if more frames are needed
+     * @throws APDUWrapper.DeserializationException if the frame does not belong to this response
+     */
+    public boolean decode(@Nonnull final byte[] packet, final int offset) throws APDUWrapper.DeserializationException {
+        if (isComplete()) {
+            throw new IllegalStateException("response already complete, reset() before decoding further frames");
+        }
+
+        final int available = Math.min(packetSize, packet.length - offset);
+        int pos = APDUWrapper.checkHeader(channel, packet, offset, available, sequenceIdx, ble);
+
+        if (sequenceIdx == 0) {
+            responseLength = ((packet[pos] & 0xFF) << 8) | (packet[pos + 1] & 0xFF);
+            pos += 2;
+
+            if (response.length < responseLength) {
+                response = new byte[responseLength];
+            }
+        }
+
+        final int amount = Math.min(offset + available - pos, responseLength - written);
+        System.arraycopy(packet, pos, response, written, amount);
+        written += amount;
+        sequenceIdx++;
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return responseLength >= 0 && written == responseLength;
+    }
+
+    /**
+     * @return total length of the response, or {@code -1} if the first frame has not been decoded
+     */
+    public int getResponseLength() {
+        return responseLength;
+    }
+
+    /**
+     * @return the backing buffer, the response occupies {@code [0, getResponseLength())}
+     */
+    byte[] getBuffer() {
+        return response;
+    }
+
+    @Nonnull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(response, written);
+    }
+}
@@ -4,9 +4,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-import static org.aion.ledger.ByteUtilities.trimHead;
-import static org.aion.ledger.ByteUtilities.trimTail;
 import static org.aion.ledger.Constants.PACKET_SIZE;
 
 public class APDUWrapper {
@@ -42,14 +41,10 @@ public class APDUWrapper {
         }
     }
 
-    static SerializedPacket serializePacket(@Nonnull final int channel,
-                                                   @Nonnull final byte[] command,
-                                                   @Nonnull final int commandOffset,
-                                                   @Nonnull final int sequenceIdx,
-                                                   @Nonnull final boolean ble) {
-        // assert some invariants
-        // TODO: convert to proper runtime exceptions later
+    // tag marking a frame as carrying APDU data
+    private static final byte TAG_APDU = 0x05;
 
+    private static void checkChannel(final int channel) {
         if (channel <= 0) {
             throw new IllegalArgumentException("channel must be > 0");
         }
@@ -57,51 +52,265 @@ public class APDUWrapper {
         if (channel > (2 << 16)) {
             throw new IllegalArgumentException("channel must be <= (2 << 16)");
         }
+    }
 
-        if (sequenceIdx > (2 << 16)) {
-            throw new IllegalArgumentException("sequenceIdx must be <= (2 << 16)");
+    // frame headers, [channel (2)] tag (1) sequenceIdx (2), followed by the
+    // total length (2) in the first frame only
+    static final int BLE_HEADER_SIZE = 3;
+    static final int USB_HEADER_SIZE = 5;
+    static final int TOTAL_LENGTH_SIZE = 2;
+
+    static int headerSize(final int sequenceIdx, final boolean ble) {
+        return (ble ? BLE_HEADER_SIZE : USB_HEADER_SIZE) + (sequenceIdx == 0 ? TOTAL_LENGTH_SIZE : 0);
+    }
+
+    /**
+     * Validates the header of the frame at {@code offset} in place
+     *
+     * @param available number of bytes of the frame present in {@code packet}
+     * @return position just past the sequence index, where the total length
+     * (first frame only) or the payload begins
+     */
+    static int checkHeader(final int channel,
+                           @Nonnull final byte[] packet,
+                           final int offset,
+                           final int available,
+                           final int sequenceIdx,
+                           final boolean ble) throws DeserializationException {
+        if (available < headerSize(sequenceIdx, ble)) {
+            // TODO: more meaningful exception
+            throw new DeserializationException("Cannot deserialize packet, header information missing");
+        }
+
+        int pos = offset;
+        if (!ble) {
+            final int dChannel = ((packet[pos] & 0xFF) << 8) | (packet[pos + 1] & 0xFF);
+            if (dChannel != channel) {
+                throw new DeserializationException("Invalid channel");
+            }
+            pos += 2;
+        }
+
+        if (packet[pos++] != TAG_APDU) {
+            throw new DeserializationException("Invalid tag");
+        }
+
+        final int dSequenceIdx = ((packet[pos] & 0xFF) << 8) | (packet[pos + 1] & 0xFF);
+        if (dSequenceIdx != sequenceIdx) {
+            throw new DeserializationException("Invalid sequenceIdx");
+        }
+        return pos + 2;
+    }
+
+    /**
+     * Returns the number of {@link Constants#PACKET_SIZE} frames required to wrap
+     * a command of {@code commandLength} bytes.
+     *
+     * @param commandLength length of the (unwrapped) APDU command
+     * @param ble whether the BLE header layout (no channel) is used
+     * @return number of frames, {@code 0} for an empty command
+     */
+    public static int frameCount(final int commandLength, final boolean ble) {
+        return frameCount(commandLength, PACKET_SIZE, ble);
+    }
+
+    static int frameCount(final int commandLength, final int packetSize, final boolean ble) {
+        if (commandLength <= 0) {
+            return 0;
+        }
+
+        final int firstCapacity = packetSize - headerSize(0, ble);
+        if (commandLength <= firstCapacity) {
+            return 1;
         }
 
-        // allocate into 64 byte chunks
-        final ByteBuffer buf = ByteBuffer.allocate(PACKET_SIZE);
+        final int capacity = packetSize - headerSize(1, ble);
+        return 1 + (commandLength - firstCapacity + capacity - 1) / capacity;
+    }
+
+    /**
+     * Writes a single frame into {@code out} at {@code outOffset}, zero padding
+     * any unused trailing bytes.
+     *
+     * @return number of command bytes consumed by this frame
+     */
+    private static int writeFrame(final int channel,
+                                  @Nonnull final byte[] command,
+                                  final int commandOffset,
+                                  final int commandEnd,
+                                  final int commandLength,
+                                  final int sequenceIdx,
+                                  final int packetSize,
+                                  final boolean ble,
+                                  @Nonnull final byte[] out,
+                                  final int outOffset) {
+        final int frameEnd = outOffset + packetSize;
+        int pos = outOffset;
+
         if (!ble) {
-            buf.putShort((short) channel);
+            out[pos++] = (byte) (channel >>> 8);
+            out[pos++] = (byte) channel;
         }
 
-        buf.put((byte) 0x05);
-        buf.putShort((short) sequenceIdx);
+        out[pos++] = TAG_APDU;
+        out[pos++] = (byte) (sequenceIdx >>> 8);
+        out[pos++] = (byte) sequenceIdx;
 
         if (sequenceIdx == 0) {
-            buf.putShort((short) command.length);
+            out[pos++] = (byte) (commandLength >>> 8);
+            out[pos++] = (byte) commandLength;
         }
 
-        // remaining capacity is attributed to command data
-        final int capacity = Math.min(buf.remaining(), command.length - commandOffset);
-        final byte[] cmdArr = new byte[capacity];
-        System.arraycopy(command, commandOffset, cmdArr, 0, capacity);
-        buf.put(cmdArr);
+        final int capacity = Math.min(frameEnd - pos, commandEnd - commandOffset);
+        System.arraycopy(command, commandOffset, out, pos, capacity);
+        Arrays.fill(out, pos + capacity, frameEnd, (byte) 0);
+        return capacity;
+    }
+
+    static SerializedPacket serializePacket(@Nonnull final int channel,
+                                                   @Nonnull final byte[] command,
+                                                   @Nonnull final int commandOffset,
+                                                   @Nonnull final int sequenceIdx,
+                                                   @Nonnull final boolean ble) {
+        // assert some invariants
+        // TODO: convert to proper runtime exceptions later
+        checkChannel(channel);
+
+        if (sequenceIdx > (2 << 16)) {
+            throw new IllegalArgumentException("sequenceIdx must be <= (2 << 16)");
+        }
 
-        final byte[] bufArr = buf.array();
+        final byte[] bufArr = new byte[PACKET_SIZE];
+        final int capacity = writeFrame(channel, command, commandOffset,
+                command.length, command.length, sequenceIdx, PACKET_SIZE, ble, bufArr, 0);
         return new SerializedPacket(bufArr, capacity);
     }
 
-    public static byte[] wrapCommandAPDU(@Nonnull final int channel,
-                                         @Nonnull final byte[] command,
-                                         @Nonnull final boolean ble) {
-        int commandOffset = 0;
-        int sequenceIdx = 0;
-        byte[] outBuf = new byte[0];
+    /**
+     * Wraps {@code command} into HID frames, writing every frame into
+     * {@code out} in a single pass. No intermediate buffers are allocated.
+     *
+     * @param channel channel id (ignored for BLE)
+     * @param command buffer containing the APDU command
+     * @param commandOffset offset of the command within {@code command}
+     * @param commandLength length of the command
+     * @param ble whether the BLE header layout (no channel) is used
+     * @param out destination, must have room for {@link #frameCount(int, boolean)} frames
+     * @param outOffset offset into {@code out} to begin writing at
+     * @return number of bytes written to {@code out}, always a multiple of {@link Constants#PACKET_SIZE}
+     */
+    public static int wrapCommandAPDU(final int channel,
+                                      @Nonnull final byte[] command,
+                                      final int commandOffset,
+                                      final int commandLength,
+                                      final boolean ble,
+                                      @Nonnull final byte[] out,
+                                      final int outOffset) {
+        return wrapCommandAPDU(channel, command, commandOffset, commandLength, PACKET_SIZE, ble, out, outOffset);
+    }
+
+    static int wrapCommandAPDU(final int channel,
+                               @Nonnull final byte[] command,
+                               final int commandOffset,
+                               final int commandLength,
+                               final int packetSize,
+                               final boolean ble,
+                               @Nonnull final byte[] out,
+                               final int outOffset) {
+        checkChannel(channel);
+
+        if (commandLength > 0xFFFF) {
+            throw new IllegalArgumentException("command cannot be greater than 65535 (0xFFFF) bytes");
+        }
+
+        final int frames = frameCount(commandLength, packetSize, ble);
+        if (out.length - outOffset < frames * packetSize) {
+            throw new IllegalArgumentException("output buffer cannot hold " + frames + " frames");
+        }
+
+        final int commandEnd = commandOffset + commandLength;
+        int cursor = commandOffset;
+        int pos = outOffset;
+        for (int sequenceIdx = 0; sequenceIdx < frames; sequenceIdx++) {
+            cursor += writeFrame(channel, command, cursor, commandEnd, commandLength, sequenceIdx, packetSize, ble, out, pos);
+            pos += packetSize;
+        }
+        return pos - outOffset;
+    }
+
+    /**
+     * Wraps {@code command} into HID frames, writing every frame into
+     * {@code out} starting at its current position. On return the position
+     * of {@code out} is advanced past the last frame.
+     *
+     * @see #wrapCommandAPDU(int, byte[], int, int, boolean, byte[], int)
+     * @return number of bytes written to {@code out}
+     */
+    public static int wrapCommandAPDU(final int channel,
+                                      @Nonnull final byte[] command,
+                                      final boolean ble,
+                                      @Nonnull final ByteBuffer out) {
+        return wrapCommandAPDU(channel, command, PACKET_SIZE, ble, out);
+    }
+
+    static int wrapCommandAPDU(final int channel,
+                               @Nonnull final byte[] command,
+                               final int packetSize,
+                               final boolean ble,
+                               @Nonnull final ByteBuffer out) {
+        checkChannel(channel);
+
+        if (command.length > 0xFFFF) {
+            throw new IllegalArgumentException("command cannot be greater than 65535 (0xFFFF) bytes");
+        }
+
+        // checked against the buffer's limit up front, the backing array may extend past it
+        final int frames = frameCount(command.length, packetSize, ble);
+        if (out.remaining() < frames * packetSize) {
+            throw new IllegalArgumentException("output buffer cannot hold " + frames + " frames");
+        }
+
+        if (out.hasArray() && !out.isReadOnly()) {
+            final int written = wrapCommandAPDU(channel, command, 0, command.length,
+                    packetSize, ble, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + written);
+            return written;
+        }
 
-        while (command.length - commandOffset > 0) {
-            SerializedPacket packet = serializePacket(channel, command, commandOffset, sequenceIdx, ble);
+        int cursor = 0;
+        for (int sequenceIdx = 0; sequenceIdx < frames; sequenceIdx++) {
+            final int frameEnd = out.position() + packetSize;
+            // written bytewise, the caller's buffer may not be big-endian
+            if (!ble) {
+                out.put((byte) (channel >>> 8));
+                out.put((byte) channel);
+            }
 
-            // TODO: optimize later
-            outBuf = ByteBuffer.allocate(outBuf.length + packet.data.length)
-                        .put(outBuf).put(packet.data).array();
+            out.put(TAG_APDU);
+            out.put((byte) (sequenceIdx >>> 8));
+            out.put((byte) sequenceIdx);
 
-            commandOffset += packet.offset;
-            sequenceIdx++;
+            if (sequenceIdx == 0) {
+                out.put((byte) (command.length >>> 8));
+                out.put((byte) command.length);
+            }
+
+            final int capacity = Math.min(frameEnd - out.position(), command.length - cursor);
+            out.put(command, cursor, capacity);
+            cursor += capacity;
+
+            while (out.position() < frameEnd) {
+                out.put((byte) 0);
+            }
         }
+        return frames * packetSize;
+    }
+
+    public static byte[] wrapCommandAPDU(@Nonnull final int channel,
+                                         @Nonnull final byte[] command,
+                                         @Nonnull final boolean ble) {
+        final byte[] outBuf = new byte[frameCount(command.length, ble) * PACKET_SIZE];
+        wrapCommandAPDU(channel, command, 0, command.length, ble, outBuf, 0);
         return outBuf;
     }
 
@@ -109,82 +318,59 @@ public class APDUWrapper {
                                                        @Nonnull final byte[] buffer,
                                                        @Nonnull final int sequenceIdx,
                                                        @Nonnull final boolean ble) throws DeserializationException {
-        if ((sequenceIdx == 0 && buffer.length < 7) || (sequenceIdx > 0 && buffer.length < 5)) {
-            // TODO: more meaningful exception
-            throw new DeserializationException("Cannot deserialize packet, header information missing");
-        }
-
-        final int offset = sequenceIdx * PACKET_SIZE;
-        // TODO: this can be optimized, offsets anyone?
-        byte[] trimBuf = trimHead(buffer, offset);
-        trimBuf = trimTail(trimBuf, trimBuf.length - PACKET_SIZE);
-        ByteBuffer buf = ByteBuffer.wrap(trimBuf);
-        if (!ble) {
-            final int dChannel = buf.getShort() & 0x0000FFFF;
-            if (dChannel != channel) {
-                throw new DeserializationException("Invalid channel");
-            }
-        }
+        return deserializePacket(channel, buffer, sequenceIdx, PACKET_SIZE, ble);
+    }
 
-        if (buf.get() != 0x05) {
-            throw new DeserializationException("Invalid tag");
-        }
+    static DeserializedPacket deserializePacket(final int channel,
+                                                @Nonnull final byte[] buffer,
+                                                final int sequenceIdx,
+                                                final int packetSize,
+                                                final boolean ble) throws DeserializationException {
+        final int offset = sequenceIdx * packetSize;
+        final int available = Math.min(packetSize, buffer.length - offset);
 
-        final int dSequenceIdx = buf.getShort() & 0x0000FFFF;
-        if (dSequenceIdx != sequenceIdx) {
-            throw new DeserializationException("Invalid sequenceIdx");
-        }
+        // read the frame in place, rather than trimming it out of the buffer
+        int pos = checkHeader(channel, buffer, offset, available, sequenceIdx, ble);
 
         int totalResponseLength = 0;
         if (sequenceIdx == 0) {
-            totalResponseLength = buf.getShort() & 0x0000FFFF;
+            totalResponseLength = ((buffer[pos] & 0xFF) << 8) | (buffer[pos + 1] & 0xFF);
+            pos += 2;
         }
 
-        final byte[] payload = new byte[buf.remaining()];
-        buf.get(payload);
+        final byte[] payload = Arrays.copyOfRange(buffer, pos, offset + available);
         return new DeserializedPacket(payload, totalResponseLength);
     }
 
+    /**
+     * Unwraps a fully buffered response, for incremental decoding as frames
+     * arrive use {@link APDUResponseDecoder} directly.
+     *
+     * @return the response, or {@code null} if {@code data} does not yet contain the full response
+     */
     @Nullable
     public static byte[] unwrapResponseAPDU(final int channel,
                                             @Nonnull byte[] data,
                                             final boolean ble)
             throws DeserializationException {
-        int sequenceIdx = 0;
-        int totalResponseLength = 0;
-        ByteBuffer outBuffer = null;
-
-        while (true) {
-            int extraHeaderSize = 0;
-
-            // the first packet always contains extra information
-            if (sequenceIdx == 0) {
-                extraHeaderSize = 2;
-            }
-
-            DeserializedPacket packet = deserializePacket(channel, data, sequenceIdx, ble);
+        return unwrapResponseAPDU(channel, data, PACKET_SIZE, ble);
+    }
 
-            // this is always guaranteed to run on the first loop
-            if (sequenceIdx == 0) {
-                totalResponseLength = packet.totalResponseLength;
-                outBuffer = ByteBuffer.allocate(totalResponseLength);
-            }
+    @Nullable
+    static byte[] unwrapResponseAPDU(final int channel,
+                                     @Nonnull byte[] data,
+                                     final int packetSize,
+                                     final boolean ble)
+            throws DeserializationException {
+        final APDUResponseDecoder decoder = new APDUResponseDecoder(channel, packetSize, ble);
 
-            if ((5 + extraHeaderSize + totalResponseLength) > data.length) {
+        int offset = 0;
+        while (!decoder.decode(data, offset)) {
+            offset += packetSize;
+            if (offset >= data.length) {
                 return null;
             }
-
-            byte[] deserializedPayload = packet.data;
-            if (outBuffer.remaining() < deserializedPayload.length) {
-                deserializedPayload = trimTail(deserializedPayload, deserializedPayload.length - outBuffer.remaining());
-            }
-            outBuffer.put(deserializedPayload);
-
-            if (!outBuffer.hasRemaining()) {
-                break;
-            }
-            sequenceIdx++;
         }
-        return outBuffer.array();
+        return decoder.toByteArray();
     }
 }
@@ -33,4 +33,15 @@ public class ByteUtilities {
         System.arraycopy(in, 0, out, 0, out.length);
         return out;
     }
-}
+
+    /**
+     * Reads 8 bytes of {@code in} at {@code offset} as a big-endian long
+     */
+    public static long getLong(@Nonnull final byte[] in, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (in[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
\ No newline at end of file
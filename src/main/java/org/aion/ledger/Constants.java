@@ -17,4 +17,7 @@ public class Constants {
     public static final int     PACKET_SIZE = 64;
 
     public static final int     LEDGER_WAIT_TIMEOUT = 500; //ms
+
+    // interval between hid4java scans for attach/detach events
+    public static final int     LEDGER_SCAN_INTERVAL = 500; //ms
 }
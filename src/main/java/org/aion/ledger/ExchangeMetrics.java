@@ -0,0 +1,403 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the exchanges made with a
+ * {@link LedgerDevice}, see {@link LedgerDevice#getMetrics()}. Recording
+ * is lock-free and does not allocate for successful exchanges.
+ *
+ * Latency is tracked for the device as a whole and per instruction (the
+ * {@code INS} byte of the command), responses are counted per status word.
+ * Read through {@link #snapshot()} or over JMX once {@link #register(String)}ed.
+ */
+public class ExchangeMetrics implements ExchangeMetricsMXBean {
+
+    private static final int SW_OK = 0x9000;
+
+    private final LongAdder exchanges = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder packetsWritten = new LongAdder();
+    private final LongAdder packetsRead = new LongAdder();
+    private final LongAdder packetsDiscarded = new LongAdder();
+    private final LongAdder wrongPaths = new LongAdder();
+    private final LongAdder corruptFrames = new LongAdder();
+    private final LongAdder readFailures = new LongAdder();
+    private final LongAdder reopens = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicReferenceArray<LatencyHistogram> instructionLatency = new AtomicReferenceArray<>(256);
+
+    // successes are by far the most common, counted apart to avoid boxing
+    private final LongAdder statusOk = new LongAdder();
+    private final Map<Integer, LongAdder> statusWords = new ConcurrentHashMap<>();
+
+    @Nullable
+    private volatile ObjectName objectName;
+
+    /**
+     * Point in time copy of the metrics
+     */
+    public static final class Snapshot {
+        private final long exchanges;
+        private final long failures;
+        private final long timeouts;
+        private final long packetsWritten;
+        private final long packetsRead;
+        private final long packetsDiscarded;
+        private final long wrongPaths;
+        private final long corruptFrames;
+        private final long readFailures;
+        private final long reopens;
+        private final long resets;
+        private final LatencyHistogram.Snapshot latency;
+        private final Map<Integer, LatencyHistogram.Snapshot> instructionLatency;
+        private final Map<Integer, Long> statusWords;
+
+        private Snapshot(@Nonnull final ExchangeMetrics metrics) {
+            this.exchanges = metrics.exchanges.sum();
+            this.failures = metrics.failures.sum();
+            this.timeouts = metrics.timeouts.sum();
+            this.packetsWritten = metrics.packetsWritten.sum();
+            this.packetsRead = metrics.packetsRead.sum();
+            this.packetsDiscarded = metrics.packetsDiscarded.sum();
+            this.wrongPaths = metrics.wrongPaths.sum();
+            this.corruptFrames = metrics.corruptFrames.sum();
+            this.readFailures = metrics.readFailures.sum();
+            this.reopens = metrics.reopens.sum();
+            this.resets = metrics.resets.sum();
+            this.latency = metrics.latency.snapshot();
+
+            final Map<Integer, LatencyHistogram.Snapshot> byInstruction = new TreeMap<>();
+            for (int i = 0; i < metrics.instructionLatency.length(); i++) {
+                final LatencyHistogram histogram = metrics.instructionLatency.get(i);
+                if (histogram != null) {
+                    byInstruction.put(i, histogram.snapshot());
+                }
+            }
+            this.instructionLatency = Collections.unmodifiableMap(byInstruction);
+
+            final Map<Integer, Long> sw = new TreeMap<>();
+            final long ok = metrics.statusOk.sum();
+            if (ok > 0) {
+                sw.put(SW_OK, ok);
+            }
+            for (Map.Entry<Integer, LongAdder> entry : metrics.statusWords.entrySet()) {
+                sw.put(entry.getKey(), entry.getValue().sum());
+            }
+            this.statusWords = Collections.unmodifiableMap(sw);
+        }
+
+        public long getExchanges() {
+            return exchanges;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getPacketsWritten() {
+            return packetsWritten;
+        }
+
+        public long getPacketsRead() {
+            return packetsRead;
+        }
+
+        public long getPacketsDiscarded() {
+            return packetsDiscarded;
+        }
+
+        public long getWrongPaths() {
+            return wrongPaths;
+        }
+
+        public long getCorruptFrames() {
+            return corruptFrames;
+        }
+
+        public long getReadFailures() {
+            return readFailures;
+        }
+
+        public long getReopens() {
+            return reopens;
+        }
+
+        public long getResets() {
+            return resets;
+        }
+
+        @Nonnull
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return latency per instruction ({@code INS} byte)
+         */
+        @Nonnull
+        public Map<Integer, LatencyHistogram.Snapshot> getInstructionLatency() {
+            return instructionLatency;
+        }
+
+        /**
+         * @return number of responses per status word
+         */
+        @Nonnull
+        public Map<Integer, Long> getStatusWords() {
+            return statusWords;
+        }
+
+        @Override
+        public String toString() {
+            return "ExchangeMetrics{exchanges=" + exchanges + ", failures=" + failures + ", timeouts=" + timeouts
+                    + ", packetsWritten=" + packetsWritten + ", packetsRead=" + packetsRead
+                    + ", packetsDiscarded=" + packetsDiscarded + ", wrongPaths=" + wrongPaths
+                    + ", corruptFrames=" + corruptFrames + ", readFailures=" + readFailures
+                    + ", reopens=" + reopens + ", resets=" + resets + ", latency=" + latency + "}";
+        }
+    }
+
+    // recording, by LedgerDevice
+
+    /**
+     * Records an exchange answered with {@code sw}, {@code -1} if the
+     * response carried none
+     */
+    void recordExchange(final int ins, final long nanos, final int sw) {
+        if (sw < 0) {
+            // no status word, the response was malformed
+            exchanges.increment();
+            failures.increment();
+            return;
+        }
+
+        exchanges.increment();
+        latency.record(nanos);
+        instruction(ins).record(nanos);
+        if (sw == SW_OK) {
+            statusOk.increment();
+        } else {
+            statusWords.computeIfAbsent(sw, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Records an exchange that ended with {@code e}, either a status word
+     * other than success or a transport failure
+     */
+    void recordFailure(final int ins, final long nanos, @Nonnull final CommsException e) {
+        if (e.getResponseCode() != -1) {
+            recordExchange(ins, nanos, e.getResponseCode());
+            return;
+        }
+
+        exchanges.increment();
+        failures.increment();
+        if (e instanceof CommsTimeoutException) {
+            timeouts.increment();
+        }
+    }
+
+    void recordPacketsWritten(final int packets) {
+        packetsWritten.add(packets);
+    }
+
+    void recordPacketRead() {
+        packetsRead.increment();
+    }
+
+    void recordPacketsDiscarded(final int packets) {
+        packetsDiscarded.add(packets);
+    }
+
+    void recordRecovery(@Nonnull final RetryPolicy.Failure failure) {
+        switch (failure) {
+            case WRONG_PATH:
+                wrongPaths.increment();
+                break;
+            case CORRUPT_FRAME:
+                corruptFrames.increment();
+                break;
+            default:
+                readFailures.increment();
+                break;
+        }
+    }
+
+    void recordReopen() {
+        reopens.increment();
+    }
+
+    void recordReset() {
+        resets.increment();
+    }
+
+    @Nonnull
+    private LatencyHistogram instruction(final int ins) {
+        final int index = ins & 0xFF;
+        LatencyHistogram histogram = instructionLatency.get(index);
+        if (histogram == null) {
+            instructionLatency.compareAndSet(index, null, new LatencyHistogram());
+            histogram = instructionLatency.get(index);
+        }
+        return histogram;
+    }
+
+    // reading
+
+    @Nonnull
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Exposes these metrics as an MBean on the platform MBean server, named
+     * {@code org.aion.ledger:type=ExchangeMetrics,name=<name>}. Replaces any
+     * previous registration of this instance.
+     */
+    @Nonnull
+    public ObjectName register(@Nonnull final String name) throws JMException {
+        unregister();
+        final ObjectName objectName = new ObjectName(
+                "org.aion.ledger:type=ExchangeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    public void unregister() throws JMException {
+        final ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        this.objectName = null;
+    }
+
+    @Override
+    public long getExchanges() {
+        return exchanges.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getPacketsWritten() {
+        return packetsWritten.sum();
+    }
+
+    @Override
+    public long getPacketsRead() {
+        return packetsRead.sum();
+    }
+
+    @Override
+    public long getPacketsDiscarded() {
+        return packetsDiscarded.sum();
+    }
+
+    @Override
+    public long getWrongPaths() {
+        return wrongPaths.sum();
+    }
+
+    @Override
+    public long getCorruptFrames() {
+        return corruptFrames.sum();
+    }
+
+    @Override
+    public long getReadFailures() {
+        return readFailures.sum();
+    }
+
+    @Override
+    public long getReopens() {
+        return reopens.sum();
+    }
+
+    @Override
+    public long getResets() {
+        return resets.sum();
+    }
+
+    @Override
+    public long getLatencyMeanMicros() {
+        return latency.snapshot().getMeanMicros();
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latency.percentile(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latency.percentile(0.99);
+    }
+
+    @Override
+    public long getLatencyP999Micros() {
+        return latency.percentile(0.999);
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latency.snapshot().getMaxMicros();
+    }
+
+    @Override
+    public Map<String, Long> getStatusWords() {
+        final Map<String, Long> out = new TreeMap<>();
+        for (Map.Entry<Integer, Long> entry : snapshot().getStatusWords().entrySet()) {
+            out.put(String.format("0x%04x", entry.getKey()), entry.getValue());
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Long> getInstructionP99Micros() {
+        final Map<String, Long> out = new TreeMap<>();
+        for (int i = 0; i < instructionLatency.length(); i++) {
+            final LatencyHistogram histogram = instructionLatency.get(i);
+            if (histogram != null) {
+                out.put(String.format("0x%02x", i), histogram.percentile(0.99));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,55 @@
+package org.aion.ledger;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ExchangeMetrics}, latencies are in microseconds
+ */
+public interface ExchangeMetricsMXBean {
+
+    long getExchanges();
+
+    /**
+     * @return exchanges that failed in transport (including timeouts),
+     * as opposed to being answered with an error status word
+     */
+    long getFailures();
+
+    long getTimeouts();
+
+    long getPacketsWritten();
+
+    long getPacketsRead();
+
+    long getPacketsDiscarded();
+
+    long getWrongPaths();
+
+    long getCorruptFrames();
+
+    long getReadFailures();
+
+    long getReopens();
+
+    long getResets();
+
+    long getLatencyMeanMicros();
+
+    long getLatencyP50Micros();
+
+    long getLatencyP99Micros();
+
+    long getLatencyP999Micros();
+
+    long getLatencyMaxMicros();
+
+    /**
+     * @return responses per status word, keyed by hex status word
+     */
+    Map<String, Long> getStatusWords();
+
+    /**
+     * @return p99 latency per instruction, keyed by hex instruction
+     */
+    Map<String, Long> getInstructionP99Micros();
+}
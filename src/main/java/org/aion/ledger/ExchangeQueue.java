@@ -0,0 +1,236 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders access to a device among concurrent callers. Waiting callers are
+ * queued per {@link LedgerDevice.Priority} lane and granted access highest
+ * lane first, in arrival order within a lane. A lower lane only proceeds
+ * once the higher lanes are empty.
+ *
+ * The number of waiting callers is bounded, further callers are rejected
+ * straight away rather than queueing behind work that may take a long time
+ * (signing waits on the user).
+ */
+class ExchangeQueue {
+
+    private static final class Waiter {
+        // exactly one of: signalled for a waiting thread, run for an asynchronous caller
+        @Nullable
+        private final Condition granted;
+        @Nullable
+        private final Runnable task;
+        private boolean ready;
+
+        private Waiter(@Nullable final Condition granted, @Nullable final Runnable task) {
+            this.granted = granted;
+            this.task = task;
+        }
+    }
+
+    // handle of an asynchronous request granted straight away
+    private static final Object GRANTED = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<ArrayDeque<Waiter>> lanes;
+
+    private volatile int capacity;
+    private int waiting;
+    private boolean busy;
+
+    ExchangeQueue(final int capacity) {
+        this.capacity = capacity;
+        final int priorities = LedgerDevice.Priority.values().length;
+        this.lanes = new ArrayList<>(priorities);
+        for (int i = 0; i < priorities; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+    }
+
+    void setCapacity(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of callers waiting for access
+     */
+    int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for access, indefinitely
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    void acquire(@Nonnull final LedgerDevice.Priority priority) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                acquire(priority, -1);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutNanos} for access
+     *
+     * @param timeoutNanos time to wait, < 0 to wait indefinitely
+     * @return {@code false} if the time elapsed before access was granted
+     * @throws RejectedExecutionException if the queue is full
+     */
+    boolean acquire(@Nonnull final LedgerDevice.Priority priority, final long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (!busy) {
+                busy = true;
+                return true;
+            }
+
+            if (waiting >= capacity) {
+                throw new RejectedExecutionException("exchange queue full (" + capacity + " waiting)");
+            }
+
+            final Waiter waiter = new Waiter(lock.newCondition(), null);
+            final ArrayDeque<Waiter> lane = lanes.get(priority.ordinal());
+            lane.addLast(waiter);
+            waiting++;
+
+            try {
+                long remaining = timeoutNanos;
+                while (!waiter.ready) {
+                    if (timeoutNanos < 0) {
+                        waiter.granted.await();
+                    } else {
+                        if (remaining <= 0) {
+                            lane.remove(waiter);
+                            waiting--;
+                            return false;
+                        }
+                        remaining = waiter.granted.awaitNanos(remaining);
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.ready) {
+                    // granted as we were interrupted, pass it on
+                    grantNext();
+                } else {
+                    lane.remove(waiter);
+                    waiting--;
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests access without waiting. Once access is granted, possibly
+     * straight away, {@code granted} is run with the queue's lock held, so it
+     * must only hand the work off. The work releases access as usual, with
+     * {@link #release()}.
+     *
+     * @return handle to {@link #cancel(Object)} the request with
+     * @throws RejectedExecutionException if the queue is full
+     */
+    @Nonnull
+    Object acquireAsync(@Nonnull final LedgerDevice.Priority priority, @Nonnull final Runnable granted) {
+        lock.lock();
+        try {
+            if (!busy) {
+                busy = true;
+                granted.run();
+                return GRANTED;
+            }
+
+            if (waiting >= capacity) {
+                throw new RejectedExecutionException("exchange queue full (" + capacity + " waiting)");
+            }
+
+            final Waiter waiter = new Waiter(null, granted);
+            lanes.get(priority.ordinal()).addLast(waiter);
+            waiting++;
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws a request made with {@link #acquireAsync}
+     *
+     * @return {@code false} if access was already granted
+     */
+    boolean cancel(@Nonnull final Object handle) {
+        if (!(handle instanceof Waiter)) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            for (ArrayDeque<Waiter> lane : lanes) {
+                if (lane.remove(handle)) {
+                    waiting--;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands access to the next waiting caller, if any
+     */
+    void release() {
+        lock.lock();
+        try {
+            grantNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grantNext() {
+        for (ArrayDeque<Waiter> lane : lanes) {
+            final Waiter next = lane.pollFirst();
+            if (next != null) {
+                waiting--;
+                next.ready = true;
+                if (next.task != null) {
+                    next.task.run();
+                } else {
+                    next.granted.signal();
+                }
+                return;
+            }
+        }
+        busy = false;
+    }
+}
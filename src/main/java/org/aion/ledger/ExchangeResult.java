@@ -0,0 +1,106 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.CommsException;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/**
+ * Outcome of an exchange made through
+ * {@link LedgerDevice#exchange(byte[], int, int, ExchangeResult)}: the status
+ * word and the response data, whatever the status word. Status words other
+ * than {@code 0x9000} (such as {@code 0x6985}, denied by the user) are
+ * reported here rather than thrown, so routine outcomes cost no more than
+ * the exchange itself.
+ *
+ * Instances are meant to be reused across exchanges, they are not
+ * thread-safe.
+ */
+public final class ExchangeResult {
+
+    public static final int SW_OK = 0x9000;
+
+    private int statusWord = -1;
+    private byte[] backing;
+    private ByteBuffer data;
+
+    /**
+     * Set by the device once the response has been received
+     */
+    void set(final int statusWord, @Nonnull final byte[] response, final int length) {
+        this.statusWord = statusWord;
+        if (backing != response) {
+            backing = response;
+            data = ByteBuffer.wrap(response).asReadOnlyBuffer();
+        }
+        data.clear();
+        data.limit(length);
+    }
+
+    /**
+     * @return status word of the response, {@code -1} before any exchange
+     */
+    public int getStatusWord() {
+        return statusWord;
+    }
+
+    public boolean isSuccess() {
+        return statusWord == SW_OK;
+    }
+
+    /**
+     * @return the response data (without the status word) as a read-only
+     * view over the device's response buffer
+     *
+     * @apiNote only valid until the next exchange on the device
+     */
+    @Nonnull
+    public ByteBuffer getData() {
+        if (data == null) {
+            throw new IllegalStateException("no exchange made");
+        }
+        return data;
+    }
+
+    public int getDataLength() {
+        return data == null ? 0 : data.limit();
+    }
+
+    /**
+     * Copies the response data into {@code out}
+     *
+     * @return number of bytes copied
+     */
+    public int copyData(@Nonnull final byte[] out, final int outOffset) {
+        final int length = getDataLength();
+        if (outOffset < 0 || out.length - outOffset < length) {
+            throw new IllegalArgumentException("out has insufficient space for response of length " + length);
+        }
+        if (length > 0) {
+            System.arraycopy(backing, 0, out, outOffset, length);
+        }
+        return length;
+    }
+
+    /**
+     * Throws the exception {@link LedgerDevice#exchange(byte[], int, int, byte[], int)}
+     * would have for an unsuccessful status word
+     *
+     * @return this result, when successful
+     */
+    @Nonnull
+    public ExchangeResult check() throws CommsException {
+        if (statusWord != SW_OK) {
+            if (statusWord < 0) {
+                throw new IllegalStateException("no exchange made");
+            }
+            throw LedgerDevice.statusException(statusWord);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ExchangeResult{statusWord=" + LedgerUtilities.shortToHex((short) statusWord) + ", length=" + getDataLength() + "}";
+    }
+}
@@ -1,6 +1,7 @@
 package org.aion.ledger;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
 
 public class KeyAddress {
     private final byte[] publicKey;
@@ -19,4 +20,22 @@ public class KeyAddress {
     public byte[] getAddress() {
         return address;
     }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyAddress)) {
+            return false;
+        }
+        final KeyAddress other = (KeyAddress) o;
+        return Arrays.equals(address, other.address) && Arrays.equals(publicKey, other.publicKey);
+    }
+
+    @Override
+    public int hashCode() {
+        // the address is itself a hash of the key
+        return Arrays.hashCode(address);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact store of derived keys, backed by a memory-mapped file, mapping
+ * addresses back to their HD offset (and public key) without keeping any
+ * {@link KeyAddress} on the heap.
+ *
+ * The file holds a 64-byte header, then one fixed-width 64-byte record per
+ * offset (32-byte public key, 32-byte address), then an open-addressing
+ * index from address to offset. Each index slot holds 4 bytes of the
+ * address as a tag and the offset, so a lookup reads the slot and then the
+ * record it points at to confirm the match: one or two cache lines. The
+ * index is kept at most half full.
+ *
+ * The file is complete at all times, reopening it needs no rebuild. Call
+ * {@link #force()} (or {@link #close()}) to make sure writes reach disk.
+ *
+ * Writes are serialised, lookups proceed without blocking and are retried
+ * if they overlap a write.
+ *
+ * @apiNote as a single mapping is used the capacity is limited to about
+ * 25 million offsets, see {@link #MAX_CAPACITY}
+ */
+public class KeyAddressStore implements Closeable {
+
+    private static final long MAGIC = 0x4C344A4B41535430L; // "L4JKAST0"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 8;
+    private static final int CAPACITY_POS = 12;
+    private static final int SLOTS_POS = 16;
+    private static final int COUNT_POS = 20;
+
+    private static final int KEY_SIZE = 32;
+    private static final int RECORD_SIZE = 2 * KEY_SIZE;
+    private static final int ADDRESS_POS = KEY_SIZE;
+    private static final int SLOT_SIZE = 8;
+
+    /**
+     * Largest capacity whose file fits in a single mapping
+     */
+    public static final int MAX_CAPACITY = maxCapacity();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private final int slotMask;
+    private final int slotShift;
+    private final int indexPos;
+    private final StampedLock lock = new StampedLock();
+
+    private int count;
+    private boolean closed;
+
+    private KeyAddressStore(@Nonnull final FileChannel channel,
+                            @Nonnull final MappedByteBuffer buf,
+                            final int capacity,
+                            final int slots,
+                            final int count) {
+        this.channel = channel;
+        this.buf = buf;
+        this.capacity = capacity;
+        this.slotMask = slots - 1;
+        this.slotShift = 64 - Integer.numberOfTrailingZeros(slots);
+        this.indexPos = HEADER_SIZE + capacity * RECORD_SIZE;
+        this.count = count;
+    }
+
+    /**
+     * @return number of index slots for {@code capacity} offsets, the
+     * smallest power of two at least twice the capacity
+     */
+    static int slotsFor(final int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    static long sizeFor(final int capacity, final int slots) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE + (long) slots * SLOT_SIZE;
+    }
+
+    private static int maxCapacity() {
+        // the size grows with the capacity, search for the last capacity that still fits
+        int low = 1;
+        int high = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+        while (low < high) {
+            final int mid = (int) (((long) low + high + 1) >>> 1);
+            if (sizeFor(mid, slotsFor(mid)) <= Integer.MAX_VALUE) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Opens the store at {@code path}, creating it with room for offsets
+     * {@code 0} to {@code capacity - 1} if it does not exist. An existing
+     * store keeps the capacity it was created with.
+     */
+    @Nonnull
+    public static KeyAddressStore open(@Nonnull final Path path, final int capacity) throws IOException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+
+        final boolean create = !Files.exists(path) || Files.size(path) == 0;
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (create) {
+                final int slots = slotsFor(capacity);
+                final long size = sizeFor(capacity, slots);
+                final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buf.putLong(MAGIC_POS, MAGIC);
+                buf.putInt(VERSION_POS, VERSION);
+                buf.putInt(CAPACITY_POS, capacity);
+                buf.putInt(SLOTS_POS, slots);
+                buf.putInt(COUNT_POS, 0);
+                return new KeyAddressStore(channel, buf, capacity, slots, 0);
+            }
+
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getLong(MAGIC_POS) != MAGIC || header.getInt(VERSION_POS) != VERSION) {
+                throw new IOException(path + " is not a key address store");
+            }
+
+            final int existingCapacity = header.getInt(CAPACITY_POS);
+            final int slots = header.getInt(SLOTS_POS);
+            final long size = sizeFor(existingCapacity, slots);
+            if (existingCapacity <= 0 || Integer.bitCount(slots) != 1
+                    || size > Integer.MAX_VALUE || channel.size() < size) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+
+            final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new KeyAddressStore(channel, buf, existingCapacity, slots, buf.getInt(COUNT_POS));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of offsets stored
+     */
+    public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void put(final int offset, @Nonnull final KeyAddress keyAddress) {
+        put(offset, keyAddress.getPublicKey(), keyAddress.getAddress());
+    }
+
+    /**
+     * Stores the key derived at {@code offset}, replacing any key stored
+     * for it before
+     */
+    public void put(final int offset, @Nonnull final byte[] publicKey, @Nonnull final byte[] address) {
+        checkOffset(offset);
+        if (publicKey.length != KEY_SIZE || address.length != KEY_SIZE) {
+            throw new IllegalArgumentException("public key and address must be " + KEY_SIZE + " bytes");
+        }
+
+        final long stamp = lock.writeLock();
+        try {
+            checkOpen();
+            if (find(address) == offset) {
+                return;
+            }
+
+            final int record = recordPos(offset);
+            final boolean present = isPresent(record);
+            if (present) {
+                // unmap the address stored before, so its slot is not leaked
+                final int previous = slotOfRecord(offset);
+                if (previous >= 0) {
+                    removeSlot(previous);
+                }
+            }
+
+            int slot = slotOf(address);
+            for (int probes = 0; buf.getInt(slotPos(slot) + 4) != 0; probes++) {
+                if (probes > slotMask) {
+                    throw new IllegalStateException("index is full");
+                }
+                slot = (slot + 1) & slotMask;
+            }
+
+            for (int i = 0; i < KEY_SIZE; i++) {
+                buf.put(record + i, publicKey[i]);
+                buf.put(record + ADDRESS_POS + i, address[i]);
+            }
+            buf.putInt(slotPos(slot), tagOf(address));
+            buf.putInt(slotPos(slot) + 4, offset + 1);
+
+            if (!present) {
+                count++;
+                buf.putInt(COUNT_POS, count);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return HD offset {@code address} was derived at, {@code -1} if not stored
+     */
+    public int offsetOf(@Nonnull final byte[] address) {
+        if (address.length != KEY_SIZE) {
+            throw new IllegalArgumentException("address must be " + KEY_SIZE + " bytes");
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        int offset = find(address);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                offset = find(address);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return offset;
+    }
+
+    public boolean contains(@Nonnull final byte[] address) {
+        return offsetOf(address) >= 0;
+    }
+
+    /**
+     * Copies the public key of {@code address} into {@code publicKeyOut}
+     *
+     * @return HD offset of the address, {@code -1} if not stored (in which
+     * case the contents of {@code publicKeyOut} are unspecified)
+     */
+    public int getPublicKey(@Nonnull final byte[] address, @Nonnull final byte[] publicKeyOut) {
+        if (address.length != KEY_SIZE || publicKeyOut.length != KEY_SIZE) {
+            throw new IllegalArgumentException("address and public key must be " + KEY_SIZE + " bytes");
+        }
+
+        final long stamp = lock.tryOptimisticRead();
+        final int offset = find(address);
+        if (offset >= 0) {
+            copy(recordPos(offset), publicKeyOut);
+        }
+
+        if (lock.validate(stamp)) {
+            return offset;
+        }
+
+        final long readStamp = lock.readLock();
+        try {
+            final int locked = find(address);
+            if (locked >= 0) {
+                copy(recordPos(locked), publicKeyOut);
+            }
+            return locked;
+        } finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    /**
+     * @return the key stored at {@code offset}, {@code null} if none
+     */
+    @Nullable
+    public KeyAddress get(final int offset) {
+        checkOffset(offset);
+        final long stamp = lock.readLock();
+        try {
+            final int record = recordPos(offset);
+            if (!isPresent(record)) {
+                return null;
+            }
+
+            final byte[] publicKey = new byte[KEY_SIZE];
+            final byte[] address = new byte[KEY_SIZE];
+            copy(record, publicKey);
+            copy(record + ADDRESS_POS, address);
+            return new KeyAddress(publicKey, address);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes outstanding changes through to disk
+     */
+    public void force() {
+        final long stamp = lock.readLock();
+        try {
+            checkOpen();
+            buf.force();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Forces and closes the store. The mapping itself is released once
+     * collected, there is no supported way to unmap it sooner.
+     */
+    @Override
+    public void close() throws IOException {
+        final long stamp = lock.writeLock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buf.force();
+            channel.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("store closed");
+        }
+    }
+
+    private void checkOffset(final int offset) {
+        if (offset < 0 || offset >= capacity) {
+            throw new IndexOutOfBoundsException("offset " + offset + " outside of store capacity " + capacity);
+        }
+    }
+
+    /**
+     * Probes the index for {@code address}, without locking
+     */
+    private int find(@Nonnull final byte[] address) {
+        final int tag = tagOf(address);
+        int slot = slotOf(address);
+        for (int probes = 0; probes <= slotMask; probes++) {
+            final int pos = slotPos(slot);
+            final int ref = buf.getInt(pos + 4);
+            if (ref == 0) {
+                return -1;
+            }
+
+            // ref is only trusted within bounds, a racing write may show a torn slot
+            if (buf.getInt(pos) == tag && ref > 0 && ref <= capacity
+                    && matches(recordPos(ref - 1) + ADDRESS_POS, address)) {
+                return ref - 1;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return index slot pointing at the record for {@code offset}, {@code -1} if none
+     */
+    private int slotOfRecord(final int offset) {
+        final int addressPos = recordPos(offset) + ADDRESS_POS;
+        final int tag = (int) (buf.getLong(addressPos + 24) >>> 32);
+        int slot = homeOf(addressPos);
+        for (int probes = 0; probes <= slotMask; probes++) {
+            final int pos = slotPos(slot);
+            final int ref = buf.getInt(pos + 4);
+            if (ref == 0) {
+                return -1;
+            }
+            if (ref == offset + 1 && buf.getInt(pos) == tag) {
+                return slot;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties {@code hole}, shifting later slots of the probe sequence back
+     * so that no lookup stops short of them
+     */
+    private void removeSlot(final int removed) {
+        int hole = removed;
+        int slot = removed;
+        while (true) {
+            slot = (slot + 1) & slotMask;
+            final int ref = buf.getInt(slotPos(slot) + 4);
+            if (ref == 0) {
+                break;
+            }
+
+            // the entry may only move back if the hole is not ahead of its home slot
+            final int home = homeOf(recordPos(ref - 1) + ADDRESS_POS);
+            if (((slot - home) & slotMask) >= ((slot - hole) & slotMask)) {
+                buf.putLong(slotPos(hole), buf.getLong(slotPos(slot)));
+                hole = slot;
+            }
+        }
+        buf.putLong(slotPos(hole), 0L);
+    }
+
+    private boolean matches(final int pos, @Nonnull final byte[] address) {
+        for (int i = 0; i < KEY_SIZE; i += 8) {
+            if (buf.getLong(pos + i) != ByteUtilities.getLong(address, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isPresent(final int record) {
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            if (buf.getLong(record + i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void copy(final int pos, @Nonnull final byte[] out) {
+        for (int i = 0; i < KEY_SIZE; i++) {
+            out[i] = buf.get(pos + i);
+        }
+    }
+
+    private int recordPos(final int offset) {
+        return HEADER_SIZE + offset * RECORD_SIZE;
+    }
+
+    private int slotPos(final int slot) {
+        return indexPos + slot * SLOT_SIZE;
+    }
+
+    // addresses are hashes already, spread the bits past the prefix byte over the index
+    private int slotOf(@Nonnull final byte[] address) {
+        return (int) ((ByteUtilities.getLong(address, 1) * 0x9E3779B97F4A7C15L) >>> slotShift) & slotMask;
+    }
+
+    // slotOf for an address stored in the mapping
+    private int homeOf(final int addressPos) {
+        return (int) ((buf.getLong(addressPos + 1) * 0x9E3779B97F4A7C15L) >>> slotShift) & slotMask;
+    }
+
+    private static int tagOf(@Nonnull final byte[] address) {
+        return (int) (ByteUtilities.getLong(address, 24) >>> 32);
+    }
+}
@@ -0,0 +1,164 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, four per power of
+ * two (so percentiles are accurate to within 25%), covering microseconds
+ * up to roughly 12 days. Recording is a single atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (40 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Point in time summary of a histogram, latencies in microseconds
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long p999Micros;
+        private final long maxMicros;
+
+        private Snapshot(final long count,
+                         final long meanMicros,
+                         final long p50Micros,
+                         final long p99Micros,
+                         final long p999Micros,
+                         final long maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getP999Micros() {
+            return p999Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + meanMicros + "us, p50=" + p50Micros + "us, p99=" + p99Micros
+                    + "us, p999=" + p999Micros + "us, max=" + maxMicros + "us}";
+        }
+    }
+
+    public void record(final long nanos) {
+        final long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketOf(micros));
+        count.increment();
+        totalMicros.add(micros);
+
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @param quantile between 0 and 1, for example {@code 0.99}
+     * @return upper bound (in microseconds) of the bucket holding the quantile, {@code 0} if empty
+     */
+    public long percentile(final double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return percentile(quantile, total);
+    }
+
+    private long percentile(final double quantile, final long total) {
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    @Nonnull
+    public Snapshot snapshot() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return new Snapshot(total,
+                total == 0 ? 0 : totalMicros.sum() / total,
+                percentile(0.5, total),
+                percentile(0.99, total),
+                percentile(0.999, total),
+                maxMicros.get());
+    }
+
+    static int bucketOf(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub);
+    }
+
+    static long lowerBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        final int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+}
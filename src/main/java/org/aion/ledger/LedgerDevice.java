@@ -1,35 +1,142 @@
 package org.aion.ledger;
 
 import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.aion.ledger.exceptions.CommsTransportException;
 import org.aion.ledger.exceptions.LedgerWriteException;
-import org.hid4java.HidServices;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static org.aion.ledger.APDUWrapper.unwrapResponseAPDU;
-import static org.aion.ledger.APDUWrapper.wrapCommandAPDU;
-import static org.aion.ledger.ByteUtilities.merge;
-import static org.aion.ledger.ByteUtilities.trimTail;
-import static org.aion.ledger.Constants.CHANNEL;
-import static org.aion.ledger.Constants.PACKET_SIZE;
-import static org.aion.ledger.LedgerUtilities.bytesToHex;
+import static org.aion.ledger.Constants.LEDGER_WAIT_TIMEOUT;
 import static org.aion.ledger.LedgerUtilities.hexToBytes;
 
 public abstract class LedgerDevice {
 
+    /**
+     * Order in which callers waiting for a busy device are served, quick
+     * lookups can be queued ahead of exchanges that wait on the user
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    /**
+     * Default bound on the number of callers waiting for a device
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    // largest command we expect: header (5) and a single byte Lc worth of data
+    private static final int MAX_COMMAND_SIZE = 5 + 0xFF;
+
+    // bound on packets discarded after an abandoned exchange, guards against a chatty device
+    private static final int MAX_DRAIN_PACKETS = 1024;
+
+    private static final int SW_OK = 0x9000;
+
+    /**
+     * Per-device buffers reused across exchanges, so that a steady state
+     * exchange does not allocate. All of these are guarded by {@link #bufferLock}.
+     *
+     * {@code buffer} holds the framed command currently being exchanged.
+     */
     protected byte[] buffer;
     protected final ReentrantLock bufferLock = new ReentrantLock();
 
+    // orders concurrent callers ahead of bufferLock
+    private final ExchangeQueue queue = new ExchangeQueue(DEFAULT_QUEUE_CAPACITY);
+
+    private APDUFramer framer;
+    private byte[] writePacket;
+    private byte[] readPacket;
+    private APDUResponseDecoder decoder;
+
+    // set while an exchange is in flight, if still set when the next exchange
+    // starts the previous one was abandoned and its response may yet arrive
+    private boolean stale;
+
+    // total time allowed for an exchange, <= 0 to wait indefinitely
+    private volatile long timeoutNanos;
+
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+    // buffer holding the last response, the decoder's for framed transports
+    private byte[] response;
+
+    // response buffer handed to unframed transports, see responseBuffer(int)
+    private byte[] rawResponse = new byte[0];
+
+    // read-only view over the response buffer, recreated only if the buffer changes
+    private byte[] viewBacking;
+    private ByteBuffer view;
+
+    private final ExchangeMetrics metrics = new ExchangeMetrics();
+
+    // dedicated thread for asynchronous device I/O, started on first use
+    private final Object executorLock = new Object();
+    private ExecutorService executor;
+    private boolean executorShutdown;
+
+    protected LedgerDevice() {
+        this(APDUFramer.USB);
+    }
+
+    /**
+     * @param framer framing used on the wire, determines the frame (report) size
+     */
+    protected LedgerDevice(@Nonnull final APDUFramer framer) {
+        setFramer(framer);
+    }
+
+    /**
+     * Changes the framing used by this device, for example once a BLE
+     * connection has negotiated its MTU. Waits for any exchange in progress.
+     */
+    protected final void setFramer(@Nonnull final APDUFramer framer) {
+        bufferLock.lock();
+        try {
+            this.framer = framer;
+            this.buffer = new byte[framer.framedLength(MAX_COMMAND_SIZE)];
+            this.writePacket = new byte[framer.getPacketSize()];
+            this.readPacket = new byte[framer.getPacketSize()];
+            this.decoder = framer.newDecoder();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    @Nonnull
+    public APDUFramer getFramer() {
+        return framer;
+    }
+
+    /**
+     * @return counters and latency histograms of the exchanges made with this device
+     */
+    @Nonnull
+    public ExchangeMetrics getMetrics() {
+        return metrics;
+    }
+
     // TODO: what if this is called twice?
     public abstract void close();
 
     /**
      * Writes a chunk of 64-byte data out to the Ledger device.
      * As best as I can tell this should be always formatted in 64 byte
-     * chunks.
+     * chunks (or {@link APDUFramer#getPacketSize()} chunks for other framings).
      *
      * @implNote Note that there is no guarantee the data is actually written
      * to the device, or when this data is written to the device.
@@ -47,119 +154,871 @@ public abstract class LedgerDevice {
      */
     protected abstract byte[] read(final int waitPeriod);
 
+    /**
+     * Retrieves a 64-byte chunk of data from the device into {@code out}.
+     * Implementations should override this to read directly into the buffer
+     * and to honour {@code waitPeriod}, the default implementation delegates
+     * to {@link #read(int)} and copies.
+     *
+     * @param out buffer of {@link APDUFramer#getPacketSize()} bytes to read into
+     * @param waitPeriod how long to wait (ms), <= 0 for indefinite blocking
+     * @return number of bytes read, {@code 0} if nothing arrived within
+     * {@code waitPeriod}, {@code -1} on any conditions failing
+     */
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        final byte[] data = read(waitPeriod);
+        if (data == null) {
+            return -1;
+        }
+        final int length = Math.min(data.length, out.length);
+        System.arraycopy(data, 0, out, 0, length);
+        return length;
+    }
+
     protected abstract void setNonBlocking(boolean cond);
 
     protected abstract void resetLedger();
 
-    private static final byte[] SPECIAL_FAIL_ARR = hexToBytes("01010500BF0001040000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000");
+    /**
+     * Cheap recovery, reopens the handle to the same device without
+     * rediscovering it. Used by the {@link RetryPolicy} before falling
+     * back to {@link #resetLedger()}.
+     *
+     * @return {@code true} if the device was reopened, the default
+     * implementation does not support reopening
+     */
+    protected boolean reopen() {
+        return false;
+    }
+
+    /**
+     * @return whether this transport carries HID frames (see {@link #getFramer()}),
+     * transports carrying whole APDUs override this and {@link #transmit}
+     */
+    public boolean isFramed() {
+        return true;
+    }
+
+    /**
+     * Exchanges a whole APDU, for transports that do not use HID framing
+     * ({@link #isFramed()} is {@code false}). The response, including the
+     * trailing status word, must be written to {@link #responseBuffer(int)}.
+     * Called with exclusive use of the device.
+     *
+     * @param timeout total time (ns) allowed for the exchange, <= 0 to wait indefinitely
+     * @return length of the response, including the status word
+     */
+    protected int transmit(@Nonnull final byte[] input,
+                           final int inputOffset,
+                           final int inputLength,
+                           final long timeout) throws CommsException {
+        throw new UnsupportedOperationException("transport uses HID framing");
+    }
 
-    @SuppressWarnings("Duplicates")
+    /**
+     * @return buffer of at least {@code capacity} bytes for {@link #transmit}
+     * to write the response into, reused across exchanges
+     */
+    @Nonnull
+    protected final byte[] responseBuffer(final int capacity) {
+        if (rawResponse.length < capacity) {
+            rawResponse = new byte[Math.max(capacity, 2 * rawResponse.length)];
+        }
+        return rawResponse;
+    }
+
+    /**
+     * Sets how failures during an exchange are retried, defaults to {@link RetryPolicy#DEFAULT}
+     */
+    public void setRetryPolicy(@Nonnull final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Nonnull
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    protected static final byte[] SPECIAL_FAIL_ARR = hexToBytes("01010500BF0001040000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000");
+
+    /**
+     * Sets the total time allowed for each exchange on this device, covering
+     * both writing the command and waiting for the response. Exchanges that
+     * exceed it fail with {@link CommsTimeoutException}. By default exchanges
+     * wait indefinitely, as signing waits on the user confirming on the device.
+     *
+     * @param timeout time allowed, <= 0 to wait indefinitely
+     */
+    public void setTimeout(final long timeout, @Nonnull final TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Exchanges an APDU command with the device, returning the response data
+     * (without the trailing status word) in a newly allocated array.
+     */
     public byte[] exchange(@Nonnull final byte[] input) throws CommsException {
-        assert input.length >= 5;
-        assert (input.length - 5) == input[4];
+        enter(Priority.NORMAL);
+        try {
+            final int length = transceive(input, 0, input.length, timeoutNanos);
+            return Arrays.copyOf(response, length);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Exchanges an APDU command with the device, writing the response data
+     * (without the trailing status word) into {@code output}. Once the
+     * device buffers have been sized this does not allocate.
+     *
+     * @param input buffer containing the APDU command
+     * @param inputOffset offset of the command within {@code input}
+     * @param inputLength length of the command
+     * @param output buffer to receive the response
+     * @param outputOffset offset within {@code output} to write the response at
+     * @return length of the response written to {@code output}
+     */
+    public int exchange(@Nonnull final byte[] input,
+                        final int inputOffset,
+                        final int inputLength,
+                        @Nonnull final byte[] output,
+                        final int outputOffset) throws CommsException {
+        return exchange(input, inputOffset, inputLength, output, outputOffset, Priority.NORMAL);
+    }
+
+    /**
+     * Variant of {@link #exchange(byte[], int, int, byte[], int)} queued
+     * with the given priority while the device is busy.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if too many callers are already waiting
+     * @see #setQueueCapacity(int)
+     */
+    public int exchange(@Nonnull final byte[] input,
+                        final int inputOffset,
+                        final int inputLength,
+                        @Nonnull final byte[] output,
+                        final int outputOffset,
+                        @Nonnull final Priority priority) throws CommsException {
+        enter(priority);
+        try {
+            final int length = transceive(input, inputOffset, inputLength, timeoutNanos);
+            if (output.length - outputOffset < length) {
+                throw new IllegalArgumentException("output buffer too small for response of " + length + " bytes");
+            }
+            System.arraycopy(response, 0, output, outputOffset, length);
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Variant of {@link #exchange(byte[], int, int, byte[], int)} bounded by
+     * {@code timeout}, which overrides the device timeout (see
+     * {@link #setTimeout(long, TimeUnit)}). Time spent waiting for other
+     * exchanges on this device to finish counts towards the budget.
+     *
+     * Interrupting the calling thread abandons the exchange, the interrupt
+     * status is preserved.
+     *
+     * @throws CommsTimeoutException if the exchange did not complete in time
+     */
+    public int exchange(@Nonnull final byte[] input,
+                        final int inputOffset,
+                        final int inputLength,
+                        @Nonnull final byte[] output,
+                        final int outputOffset,
+                        final long timeout,
+                        @Nonnull final TimeUnit unit) throws CommsException {
+        final long start = System.nanoTime();
+        final long budget = unit.toNanos(timeout);
+        try {
+            if (!bufferLock.isHeldByCurrentThread() && !queue.acquire(Priority.NORMAL, budget)) {
+                throw new CommsTimeoutException("device busy, timed out after " + unit.toMillis(timeout) + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommsException("interrupted while waiting for device", e);
+        }
+        bufferLock.lock();
+
+        try {
+            final long remaining = budget - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                throw new CommsTimeoutException("device busy, timed out after " + unit.toMillis(timeout) + "ms");
+            }
+
+            final int length = transceive(input, inputOffset, inputLength, remaining);
+            if (output.length - outputOffset < length) {
+                throw new IllegalArgumentException("output buffer too small for response of " + length + " bytes");
+            }
+            System.arraycopy(response, 0, output, outputOffset, length);
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Exchanges an APDU command with the device, returning the response data
+     * (without the trailing status word) as a read-only view over the
+     * device's internal response buffer. Once the device buffers have been
+     * sized this does not allocate.
+     *
+     * The caller must hold the device through {@link #acquire()}, the view
+     * is only valid until it is released or the next exchange is made.
+     *
+     * @throws IllegalStateException if the device has not been acquired by the calling thread
+     */
+    @Nonnull
+    public ByteBuffer exchangeView(@Nonnull final byte[] input,
+                                   final int inputOffset,
+                                   final int inputLength) throws CommsException {
+        if (!bufferLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("exchangeView requires the device to be acquired");
+        }
+
+        enter(Priority.NORMAL);
+        try {
+            final int length = transceive(input, inputOffset, inputLength, timeoutNanos);
+            final byte[] backing = response;
+            if (viewBacking != backing) {
+                viewBacking = backing;
+                view = ByteBuffer.wrap(backing).asReadOnlyBuffer();
+            }
+            view.clear();
+            view.limit(length);
+            return view;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Exchanges an APDU command with the device without interpreting the
+     * status word, so that expected outcomes (such as the user denying a
+     * signature) are reported in {@code result} rather than thrown. The
+     * response data is exposed as a read-only view over the device's
+     * response buffer. Reusing {@code result} across exchanges, this does
+     * not allocate.
+     *
+     * @apiNote the view in {@code result} is only valid until the next
+     * exchange on this device, callers must consume it before then
+     * @param result receives the status word and response data
+     * @return {@code result}
+     * @throws CommsException only if the exchange itself fails
+     */
+    @Nonnull
+    public ExchangeResult exchange(@Nonnull final byte[] input,
+                                   final int inputOffset,
+                                   final int inputLength,
+                                   @Nonnull final ExchangeResult result) throws CommsException {
+        enter(Priority.NORMAL);
+        try {
+            final int responseLength = transceiveRaw(input, inputOffset, inputLength, timeoutNanos);
+            final int sw = statusWord(response, responseLength);
+            if (sw < 0) {
+                throw new CommsException("response too short, missing status word");
+            }
+            result.set(sw, response, responseLength - 2);
+            return result;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Exchanges an already framed command with the device, for callers that
+     * frame several commands up front (see {@link #getFramer()}) and stream
+     * them back-to-back. The response data (without the trailing status
+     * word) is written into {@code output}.
+     *
+     * @param framed buffer containing the framed command
+     * @param framedOffset offset of the first frame within {@code framed}
+     * @param frames number of frames making up the command
+     * @param output buffer to receive the response
+     * @param outputOffset offset within {@code output} to write the response at
+     * @return length of the response written to {@code output}
+     */
+    public int exchangeFramed(@Nonnull final byte[] framed,
+                              final int framedOffset,
+                              final int frames,
+                              @Nonnull final byte[] output,
+                              final int outputOffset) throws CommsException {
+        enter(Priority.NORMAL);
+        try {
+            if (!isFramed()) {
+                throw new UnsupportedOperationException("transport does not use HID framing");
+            }
+
+            if (framed.length - framedOffset < frames * framer.getPacketSize()) {
+                throw new IllegalArgumentException("framed buffer too small for " + frames + " frames");
+            }
+
+            final int ins = framed[framedOffset + framer.commandOffset() + 1];
+            final long start = System.nanoTime();
+            final int responseLength;
+            try {
+                responseLength = transceiveFramed(framed, framedOffset, frames, timeoutNanos);
+            } catch (CommsException e) {
+                metrics.recordFailure(ins, System.nanoTime() - start, e);
+                throw e;
+            }
+            metrics.recordExchange(ins, System.nanoTime() - start, statusWord(response, responseLength));
+
+            final int length = checkStatus(response, responseLength);
+
+            if (output.length - outputOffset < length) {
+                throw new IllegalArgumentException("output buffer too small for response of " + length + " bytes");
+            }
+            System.arraycopy(response, 0, output, outputOffset, length);
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Acquires exclusive use of this device, so that a sequence of
+     * exchanges is not interleaved with exchanges from other threads.
+     * Exchanges made by the holding thread proceed as normal. Must be
+     * paired with {@link #release()}.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if too many callers are already waiting
+     */
+    public void acquire() {
+        acquire(Priority.NORMAL);
+    }
+
+    /**
+     * Variant of {@link #acquire()} queued with the given priority while the device is busy
+     */
+    public void acquire(@Nonnull final Priority priority) {
+        enter(priority);
+    }
+
+    /**
+     * Releases exclusive use acquired through {@link #acquire()}
+     */
+    public void release() {
+        exit();
+    }
+
+    /**
+     * @return whether the calling thread holds this device, through
+     * {@link #acquire()} or an exchange in progress
+     */
+    public boolean isHeldByCurrentThread() {
+        return bufferLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Bounds the number of callers waiting for this device, beyond which
+     * exchanges are rejected immediately with
+     * {@link java.util.concurrent.RejectedExecutionException}. Defaults to
+     * {@link #DEFAULT_QUEUE_CAPACITY}.
+     */
+    public void setQueueCapacity(final int capacity) {
+        queue.setCapacity(capacity);
+    }
+
+    /**
+     * @return number of callers currently waiting for this device
+     */
+    public int getQueueDepth() {
+        return queue.getWaiting();
+    }
+
+    private void enter(@Nonnull final Priority priority) {
+        // nested exchanges (for example within acquire/release) proceed directly
+        if (!bufferLock.isHeldByCurrentThread()) {
+            queue.acquire(priority);
+        }
+        bufferLock.lock();
+    }
+
+    private void exit() {
+        bufferLock.unlock();
+        if (!bufferLock.isHeldByCurrentThread()) {
+            queue.release();
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #exchange(byte[])}, device I/O is
+     * performed on this device's dedicated I/O thread.
+     *
+     * @see #submitAsync(Callable)
+     */
+    @Nonnull
+    public CompletableFuture<byte[]> exchangeAsync(@Nonnull final byte[] input) {
+        return submitAsync(() -> exchange(input));
+    }
+
+    /**
+     * Runs {@code task} on this device's dedicated I/O thread, at
+     * {@link Priority#NORMAL}.
+     *
+     * @see #submitAsync(Priority, Callable)
+     */
+    @Nonnull
+    public <T> CompletableFuture<T> submitAsync(@Nonnull final Callable<T> task) {
+        return submitAsync(Priority.NORMAL, task);
+    }
+
+    /**
+     * Runs {@code task} on this device's dedicated I/O thread, holding the
+     * device as with {@link #acquire(Priority)}. The task is queued for the
+     * device alongside synchronous callers in the lane of {@code priority},
+     * and only handed to the I/O thread once admitted, so a handful of caller
+     * threads can have many requests outstanding without being blocked.
+     * Waiting tasks count towards the queue capacity.
+     *
+     * Cancelling the returned future before the task starts withdraws it,
+     * cancelling it while running interrupts the I/O thread.
+     *
+     * @param task work to perform against this device, typically one or more exchanges
+     * @return future completed with the result of {@code task}, with
+     * {@link RejectedExecutionException} if the queue is full, or with
+     * {@link CommsException} once the device has been closed
+     */
+    @Nonnull
+    public <T> CompletableFuture<T> submitAsync(@Nonnull final Priority priority, @Nonnull final Callable<T> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        synchronized (executorLock) {
+            if (executorShutdown) {
+                result.completeExceptionally(new CommsTransportException("device closed"));
+                return result;
+            }
+        }
+
+        final AsyncTask<T> work = new AsyncTask<>(task, result);
+        try {
+            work.handle = queue.acquireAsync(priority, work::admitted);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                work.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Task submitted through {@link #submitAsync(Priority, Callable)}, run
+     * on the I/O thread once the queue has admitted it
+     */
+    private final class AsyncTask<T> implements Runnable {
+        private final Callable<T> task;
+        private final CompletableFuture<T> result;
+        private volatile Object handle;
+
+        // guarded by synchronizing on this task
+        private Thread runner;
 
-        final byte[] wrappedInput = wrapCommandAPDU(CHANNEL, input, false);
+        private AsyncTask(@Nonnull final Callable<T> task, @Nonnull final CompletableFuture<T> result) {
+            this.task = task;
+            this.result = result;
+        }
 
-        assert wrappedInput.length % PACKET_SIZE == 0;
+        // called with the queue's lock held, only hands off
+        private void admitted() {
+            final ExecutorService executor = executor();
+            if (executor == null) {
+                // queued before the device was closed
+                abandon(new CommsTransportException("device closed"));
+                return;
+            }
 
-        // TODO: or just plain ol byte arrays (?)
-        final ByteBuffer buffer = ByteBuffer.wrap(wrappedInput);
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                abandon(new CommsTransportException("device closed", e));
+            }
+        }
 
-        while (buffer.remaining() >= PACKET_SIZE) {
-            // TODO:
-            final byte[] packet = new byte[PACKET_SIZE];
-            buffer.get(packet);
+        @Override
+        public void run() {
+            // admitted already, the queue slot is ours
+            bufferLock.lock();
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
             try {
-                write(packet);
+                if (!result.isDone()) {
+                    result.complete(task.call());
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // a cancellation must not leak into the next task
+                    Thread.interrupted();
+                }
+                exit();
+            }
+        }
+
+        private void abandon(@Nonnull final Throwable cause) {
+            result.completeExceptionally(cause);
+            queue.release();
+        }
+
+        private void cancel() {
+            final Object handle = this.handle;
+            if (handle != null && queue.cancel(handle)) {
+                return;
+            }
+
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the I/O executor, started on first use, {@code null} once shut down
+     */
+    @Nullable
+    private ExecutorService executor() {
+        synchronized (executorLock) {
+            if (executorShutdown) {
+                return null;
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(r -> {
+                    final Thread t = new Thread(r, "ledger-io-" + LedgerDevice.this);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Stops the asynchronous I/O thread (if started), pending tasks and any
+     * submitted later fail with {@link CommsException}. Implementations
+     * should call this from {@link #close()}.
+     */
+    protected final void shutdownAsync() {
+        final List<Runnable> pending;
+        synchronized (executorLock) {
+            executorShutdown = true;
+            if (executor == null) {
+                return;
+            }
+            pending = executor.shutdownNow();
+            executor = null;
+        }
+
+        // admitted tasks hold the queue, hand it on (outside executorLock, the queue takes it when admitting)
+        final CommsException closed = new CommsTransportException("device closed");
+        for (Runnable r : pending) {
+            if (r instanceof AsyncTask) {
+                ((AsyncTask<?>) r).abandon(closed);
+            }
+        }
+    }
+
+    private void writeFrames(@Nonnull final byte[] framed, final int framedOffset, final int frames) {
+        final int packetSize = framer.getPacketSize();
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(framed, framedOffset + i * packetSize, writePacket, 0, packetSize);
+            try {
+                write(writePacket);
             } catch (LedgerWriteException e) {
                 throw new RuntimeException(e);
             }
         }
+        metrics.recordPacketsWritten(frames);
+    }
 
-        // after writing is complete, starting reading from device
-        // TODO
-        byte[] ledgerResponse = new byte[0];
-        byte[] deserialized = null;
+    /**
+     * Writes the command out and decodes the response into {@link #decoder}.
+     * Must be called with {@link #bufferLock} held.
+     *
+     * @return length of the response data, excluding the status word
+     */
+    private int transceive(@Nonnull final byte[] input,
+                           final int inputOffset,
+                           final int inputLength,
+                           final long timeout) throws CommsException {
+        final int responseLength = transceiveRaw(input, inputOffset, inputLength, timeout);
+        return checkStatus(response, responseLength);
+    }
 
-        int failArrCounter = 0;
-        LOOP:
-        while (true) {
-            byte[] respPacket = read(1000);
-            ledgerResponse = merge(ledgerResponse, respPacket);
+    /**
+     * As {@link #transceive(byte[], int, int, long)}, without interpreting
+     * the status word
+     *
+     * @return length of the response in {@link #response}, including the status word
+     */
+    private int transceiveRaw(@Nonnull final byte[] input,
+                              final int inputOffset,
+                              final int inputLength,
+                              final long timeout) throws CommsException {
+        assert inputLength >= 5;
+        final int ins = input[inputOffset + 1];
+        final long start = System.nanoTime();
+        final int responseLength;
+        try {
+            if (!isFramed()) {
+                responseLength = transmit(input, inputOffset, inputLength, timeout);
+                response = rawResponse;
+            } else {
+                final int frames = frame(input, inputOffset, inputLength);
+                responseLength = transceiveFramed(buffer, 0, frames, timeout);
+            }
+        } catch (CommsException e) {
+            metrics.recordFailure(ins, System.nanoTime() - start, e);
+            throw e;
+        }
+        metrics.recordExchange(ins, System.nanoTime() - start, statusWord(response, responseLength));
+        return responseLength;
+    }
+
+    /**
+     * Frames the command into {@link #buffer}, growing it if required.
+     * Must be called with {@link #bufferLock} held.
+     *
+     * @return number of frames written
+     */
+    private int frame(@Nonnull final byte[] input,
+                      final int inputOffset,
+                      final int inputLength) {
+        assert inputLength >= 5;
+        assert (inputLength - 5) == (input[inputOffset + 4] & 0xFF);
 
+        final int frames = framer.frameCount(inputLength);
+        if (buffer.length < frames * framer.getPacketSize()) {
+            buffer = new byte[frames * framer.getPacketSize()];
+        }
+        framer.wrap(input, inputOffset, inputLength, buffer, 0);
+        return frames;
+    }
+
+    /**
+     * Applies the {@link RetryPolicy} to a failure during an exchange,
+     * returning once the device has been recovered and the command can be
+     * rewritten, or throwing if the failure is not to be retried.
+     *
+     * The policy's budget runs from the first failure of the exchange, so
+     * time spent waiting on the user beforehand does not count against it.
+     *
+     * @param attempt number of recoveries already made in this exchange
+     * @param start start of the exchange, as given by {@link System#nanoTime()}
+     * @param firstFailure time of the first failure in this exchange, as given by {@link System#nanoTime()}
+     * @param timeout total time (ns) allowed for the exchange, <= 0 if unbounded
+     */
+    private void recover(@Nonnull final RetryPolicy.Failure failure,
+                         @Nullable final Exception cause,
+                         final int attempt,
+                         final long start,
+                         final long firstFailure,
+                         final long timeout) throws CommsException {
+        metrics.recordRecovery(failure);
+        final RetryPolicy policy = retryPolicy;
+        if (!policy.isRetryable(failure)) {
+            switch (failure) {
+                case READ_FAILED:
+                    throw new CommsTransportException("failed to read from device, HID information: " + this.toString());
+                case WRONG_PATH:
+                    throw new CommsTransportException("triggered wrongly published path, HID information: " + this.toString());
+                default:
+                    // this indicates there was an unrecoverable issue with deserialization
+                    // best to wrap in an LedgerException and throw
+                    throw new CommsTransportException("deserialization error, cannot proceed", cause);
+            }
+        }
+
+        final long backoff = policy.backoffNanos(attempt);
+        final long now = System.nanoTime();
+        final long elapsed = now - firstFailure;
+        if (elapsed + backoff > policy.getBudgetNanos()
+                || (timeout > 0 && now - start + backoff > timeout)) {
+            final String reason = "giving up after " + (attempt + 1) + " " + failure + " failures in "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms, HID information: " + this.toString();
+            if (cause != null) {
+                throw new CommsTransportException(reason, cause);
+            }
+            throw new CommsTransportException(reason);
+        }
+
+        if (backoff > 0) {
             try {
-                deserialized = unwrapResponseAPDU(CHANNEL, ledgerResponse, false);
-            } catch (APDUWrapper.DeserializationException e) {
-
-                // handles a special case that can occur on MacOS in which
-                // the handle (path) for the ledger is improperly published
-                // leading us to write to the wrong HID interface TODO: confirm
-                // in such a situation, request a reset of the ledger device
-                // and try writing to the buffer again
-                if (Arrays.equals(respPacket, SPECIAL_FAIL_ARR)) {
-                    resetLedger();
-
-                    // rewind and prepare for rewrite
-                    buffer.rewind();
-                    // reset the current response buffers, since messages are corrupt
-                    ledgerResponse = new byte[0];
-                    while (buffer.remaining() >= PACKET_SIZE) {
-                        // TODO:
-                        final byte[] packet = new byte[PACKET_SIZE];
-                        buffer.get(packet);
-                        try {
-                            write(packet);
-                        } catch (LedgerWriteException e2) {
-                            throw new RuntimeException(e2);
-                        }
-                    }
-                    failArrCounter++;
-
-                    // based on the assumption that this may be time related
-                    if (failArrCounter >= 6) {
-                        try {
-                            Thread.sleep(100L);
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException(ie);
-                        }
-                    }
+                TimeUnit.NANOSECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CommsException("interrupted while recovering device", e);
+            }
+        }
 
-                    if (failArrCounter >= 10) {
-                        throw new CommsException("triggered wrongly published path too many times (10), HID information: " + this.toString());
-                    }
+        if (policy.shouldReopen(attempt) && reopen()) {
+            metrics.recordReopen();
+        } else {
+            resetLedger();
+            metrics.recordReset();
+        }
+    }
 
-                    continue LOOP;
+    /**
+     * Discards anything left over from an abandoned exchange, so that a late
+     * response is not mistaken for the response to the next command.
+     */
+    private void drain() {
+        int discarded = 0;
+        while (discarded < MAX_DRAIN_PACKETS && read(readPacket, 1) > 0) {
+            discarded++;
+        }
+        metrics.recordPacketsDiscarded(discarded);
+        stale = false;
+    }
+
+    /**
+     * Writes an already framed command out and decodes the response into
+     * {@link #decoder}. Must be called with {@link #bufferLock} held.
+     *
+     * The response is awaited in slices of at most {@link Constants#LEDGER_WAIT_TIMEOUT},
+     * so that the deadline and interruption are noticed promptly.
+     *
+     * @param timeout total time (ns) allowed for the exchange, <= 0 to wait indefinitely
+     * @return length of the response in {@link #response}, including the status word
+     */
+    private int transceiveFramed(@Nonnull final byte[] framed,
+                                 final int framedOffset,
+                                 final int frames,
+                                 final long timeout) throws CommsException {
+        final long start = System.nanoTime();
+        if (stale) {
+            drain();
+        }
+
+        // cleared once the response has been fully read
+        stale = true;
+        writeFrames(framed, framedOffset, frames);
+
+        // after writing is complete, starting reading from device
+        // frames are decoded as they arrive, straight into the response buffer
+        decoder.reset();
+
+        int attempts = 0;
+        long firstFailure = 0;
+        while (true) {
+            int waitPeriod = LEDGER_WAIT_TIMEOUT;
+            if (timeout > 0) {
+                final long remaining = timeout - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    throw new CommsTimeoutException("no response within "
+                            + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms, HID information: " + this.toString());
                 }
+                waitPeriod = (int) Math.max(1L, Math.min(waitPeriod, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
 
-                // this indicates there was an unrecoverable issue with deserialization
-                // best to wrap in an LedgerException and throw
-                throw new CommsException("deserialization error, cannot proceed", e);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CommsException("interrupted while waiting for response");
             }
 
-            // indicates a successful deserialization
-            if (deserialized != null) {
-                break;
+            final int read = read(readPacket, waitPeriod);
+            if (read == 0) {
+                // nothing yet, the device may be waiting on the user
+                continue;
             }
+
+            final RetryPolicy.Failure failure;
+            Exception cause = null;
+            if (read < 0) {
+                failure = RetryPolicy.Failure.READ_FAILED;
+            } else {
+                metrics.recordPacketRead();
+                final byte[] respPacket = readPacket;
+                try {
+                    if (decoder.decode(respPacket, 0)) {
+                        break;
+                    }
+                    continue;
+                } catch (APDUWrapper.DeserializationException e) {
+                    // handles a special case that can occur on MacOS in which
+                    // the handle (path) for the ledger is improperly published
+                    // leading us to write to the wrong HID interface TODO: confirm
+                    failure = Arrays.equals(respPacket, SPECIAL_FAIL_ARR)
+                            ? RetryPolicy.Failure.WRONG_PATH
+                            : RetryPolicy.Failure.CORRUPT_FRAME;
+                    cause = e;
+                }
+            }
+
+            if (attempts == 0) {
+                firstFailure = System.nanoTime();
+            }
+            recover(failure, cause, attempts++, start, firstFailure, timeout);
+
+            // reset the current response buffers, since messages are corrupt
+            // and rewrite the (still framed) command
+            decoder.reset();
+            writeFrames(framed, framedOffset, frames);
         }
 
-        // interpret results of deserialization
-        final int swOffset = deserialized.length - 2;
-        final int sw = (deserialized[swOffset] << 8 + deserialized[swOffset + 1]) & 0xFFFF;
+        stale = false;
+
+        response = decoder.getBuffer();
+        return decoder.getResponseLength();
+    }
+
+    /**
+     * Interprets the status word trailing the response
+     *
+     * @return length of the response data, excluding the status word
+     */
+    private static int checkStatus(@Nonnull final byte[] deserialized, final int responseLength) throws CommsException {
+        final int sw = statusWord(deserialized, responseLength);
+        if (sw < 0) {
+            throw new CommsException("response too short, missing status word");
+        }
+
+        if (sw != SW_OK) {
+            throw statusException(sw);
+        }
+        return responseLength - 2;
+    }
+
+    /**
+     * @return the status word trailing the response, {@code -1} if the response is too short
+     */
+    private static int statusWord(@Nonnull final byte[] deserialized, final int responseLength) {
+        if (responseLength < 2) {
+            return -1;
+        }
+
+        final int swOffset = responseLength - 2;
+        return ((deserialized[swOffset] & 0xFF) << 8) | (deserialized[swOffset + 1] & 0xFF);
+    }
+
+    /**
+     * @return the exception reporting an unsuccessful status word
+     */
+    @Nonnull
+    static CommsException statusException(final int sw) {
         switch(sw) {
-            case 0x9000:
-                return trimTail(deserialized, 2);
             case 0x6982:
-                throw new CommsException(sw, "Have you installed the existing CA with resetCustomCA first?");
+                return new CommsException(sw, "Have you installed the existing CA with resetCustomCA first?");
             case 0x6985:
-                throw new CommsException(sw, "Condition of use not satisifed (denied by user?");
+                return new CommsException(sw, "Condition of use not satisifed (denied by user?");
             case 0x6a84:
             case 0x6a85:
-                throw new CommsException(sw, "Not enough space?");
+                return new CommsException(sw, "Not enough space?");
             case 0x6484:
-                throw new CommsException(sw, "Are you using the correct targetId?");
+                return new CommsException(sw, "Are you using the correct targetId?");
             default:
-                throw new CommsException(sw, "Unknown reason");
+                return new CommsException(sw, "Unknown reason");
         }
     }
 }
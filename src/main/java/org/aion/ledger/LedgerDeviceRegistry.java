@@ -0,0 +1,247 @@
+package org.aion.ledger;
+
+import org.hid4java.HidDevice;
+import org.hid4java.HidServices;
+import org.hid4java.HidServicesListener;
+import org.hid4java.HidServicesSpecification;
+import org.hid4java.ScanMode;
+import org.hid4java.event.HidServicesEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.aion.ledger.Constants.LEDGER_SCAN_INTERVAL;
+
+/**
+ * Long-lived view of the attached Ledger devices, kept up to date from
+ * hid4java attach/detach notifications rather than enumerating every HID
+ * device on each lookup. Handles are keyed by their HID path.
+ *
+ * With {@link ScanMode#NO_SCAN} notifications are only delivered when
+ * {@link #refresh()} is called.
+ *
+ * Handles are shared, so each is claimed by at most one
+ * {@link LedgerHIDAPI} at a time: claims last until the holder is closed,
+ * surviving a detach, so that the holder (and only the holder) picks the
+ * device up again when it reattaches.
+ */
+public class LedgerDeviceRegistry implements HidServicesListener {
+
+    private static LedgerDeviceRegistry instance;
+
+    @Nullable
+    private final HidServices services;
+    private final Map<String, HidDevice> devices = new ConcurrentHashMap<>();
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param scanMode how hid4java discovers attach/detach events
+     * @param scanInterval time between scans (ms), ignored for {@link ScanMode#NO_SCAN}
+     */
+    public LedgerDeviceRegistry(@Nonnull final ScanMode scanMode, final int scanInterval) {
+        final HidServicesSpecification specs = new HidServicesSpecification();
+        specs.setScanMode(scanMode);
+        specs.setScanInterval(scanInterval);
+        specs.setPauseInterval(scanInterval);
+
+        this.services = new HidServices(specs);
+        this.services.addHidServicesListener(this);
+
+        // devices attached before we started listening
+        for (HidDevice device : services.getAttachedHidDevices()) {
+            register(device);
+        }
+        this.services.start();
+    }
+
+    /**
+     * Registry without HID services, notifications are delivered by calling
+     * the listener methods directly
+     */
+    LedgerDeviceRegistry() {
+        this.services = null;
+    }
+
+    /**
+     * @return the shared registry, created on first use scanning every
+     * {@link Constants#LEDGER_SCAN_INTERVAL} ms
+     */
+    @Nonnull
+    public static synchronized LedgerDeviceRegistry getInstance() {
+        if (instance == null) {
+            instance = new LedgerDeviceRegistry(ScanMode.SCAN_AT_FIXED_INTERVAL_WITH_PAUSE_AFTER_WRITE, LEDGER_SCAN_INTERVAL);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the shared registry with one using the given scan settings,
+     * the previous registry (if any) is shut down. Devices already opened
+     * remain usable.
+     */
+    @Nonnull
+    public static synchronized LedgerDeviceRegistry configure(@Nonnull final ScanMode scanMode, final int scanInterval) {
+        if (instance != null) {
+            instance.shutdown();
+        }
+        instance = new LedgerDeviceRegistry(scanMode, scanInterval);
+        return instance;
+    }
+
+    /**
+     * @return the handle registered under {@code path}, {@code null} if it is not attached
+     */
+    @Nullable
+    public HidDevice get(@Nonnull final String path) {
+        return devices.get(path);
+    }
+
+    /**
+     * Claims the unclaimed Ledger device with the lowest path
+     *
+     * @return the device, {@code null} if all attached devices are claimed
+     */
+    @Nullable
+    public synchronized HidDevice claimFirst() {
+        HidDevice first = null;
+        for (HidDevice device : devices.values()) {
+            if (!claimed.contains(device.getPath())
+                    && (first == null || device.getPath().compareTo(first.getPath()) < 0)) {
+                first = device;
+            }
+        }
+
+        if (first != null) {
+            claimed.add(first.getPath());
+        }
+        return first;
+    }
+
+    /**
+     * Claims every unclaimed Ledger device
+     */
+    @Nonnull
+    public synchronized List<HidDevice> claimAll() {
+        final List<HidDevice> unclaimed = new ArrayList<>();
+        for (HidDevice device : devices.values()) {
+            if (claimed.add(device.getPath())) {
+                unclaimed.add(device);
+            }
+        }
+        return unclaimed;
+    }
+
+    /**
+     * Finds the current handle of {@code previous} after it failed, from the
+     * devices known to the registry (no enumeration is made): the device
+     * attached at the same path, or else the one device with the same
+     * serial number (its path having been republished). Another physical
+     * device, or one claimed by someone else, is never returned.
+     *
+     * @param held whether the caller holds the claim on the path of {@code previous}
+     * @return the handle, now claimed by the caller, or {@code null} if the
+     * device is not attached or cannot be told apart from other devices
+     */
+    @Nullable
+    public synchronized HidDevice reclaim(@Nonnull final HidDevice previous, final boolean held) {
+        final String path = previous.getPath();
+        final HidDevice same = devices.get(path);
+        if (same != null && (held || claimed.add(path))) {
+            return same;
+        }
+
+        // Ledgers may share a serial number, it only identifies the device if no other has it
+        final String serial = previous.getSerialNumber();
+        if (serial == null || serial.isEmpty()) {
+            return null;
+        }
+
+        HidDevice match = null;
+        for (HidDevice device : devices.values()) {
+            if (serial.equals(device.getSerialNumber())
+                    && device.getVendorId() == previous.getVendorId()
+                    && device.getProductId() == previous.getProductId()) {
+                if (match != null) {
+                    return null;
+                }
+                match = device;
+            }
+        }
+
+        if (match == null || !claimed.add(match.getPath())) {
+            return null;
+        }
+        if (held) {
+            claimed.remove(path);
+        }
+        return match;
+    }
+
+    /**
+     * Releases the claim on {@code path}, made through one of the claim methods
+     */
+    public void release(@Nonnull final String path) {
+        claimed.remove(path);
+    }
+
+    public boolean isClaimed(@Nonnull final String path) {
+        return claimed.contains(path);
+    }
+
+    /**
+     * @return snapshot of the attached Ledger devices
+     */
+    @Nonnull
+    public List<HidDevice> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Performs a scan immediately, delivering any pending attach/detach
+     * notifications. Required to pick up changes with {@link ScanMode#NO_SCAN}.
+     */
+    public void refresh() {
+        if (services != null) {
+            services.scan();
+        }
+    }
+
+    public void shutdown() {
+        if (services != null) {
+            services.removeUsbServicesListener(this);
+            services.stop();
+        }
+        devices.clear();
+    }
+
+    @Override
+    public void hidDeviceAttached(@Nonnull final HidServicesEvent event) {
+        register(event.getHidDevice());
+    }
+
+    @Override
+    public void hidDeviceDetached(@Nonnull final HidServicesEvent event) {
+        devices.remove(event.getHidDevice().getPath());
+    }
+
+    @Override
+    public void hidFailure(@Nonnull final HidServicesEvent event) {
+        // failures are surfaced to whoever holds the device open
+    }
+
+    private void register(@Nonnull final HidDevice device) {
+        if (LedgerUtilities.isLedger(device.getVendorId(), device.getProduct(),
+                device.getUsagePage(), device.getInterfaceNumber())) {
+            devices.put(device.getPath(), device);
+        }
+    }
+}
@@ -2,30 +2,55 @@ package org.aion.ledger;
 
 import org.aion.ledger.exceptions.LedgerWriteException;
 import org.hid4java.HidDevice;
-import org.hid4java.HidManager;
-import org.hid4java.HidServices;
+import org.hid4java.jna.HidApi;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import java.io.IOException;
-
 import static org.aion.ledger.Constants.PACKET_SIZE;
 
 public class LedgerHIDAPI extends LedgerDevice {
 
+    static {
+        // https://github.com/gary-rowe/hid4java/pull/43
+        HidApi.dropReportIdZero = false;
+    }
+
     private HidDevice device;
 
+    // registry the device is claimed from, null until claimed
+    @Nullable
+    private LedgerDeviceRegistry registry;
+    private boolean closed;
+
     public LedgerHIDAPI(@Nonnull final HidDevice device) {
+        this(device, null);
+    }
+
+    /**
+     * Wraps a device claimed from {@code registry}, the claim is released on {@link #close()}
+     */
+    LedgerHIDAPI(@Nonnull final HidDevice device, @Nullable final LedgerDeviceRegistry registry) {
         this.device = device;
+        this.registry = registry;
     }
 
-    // TODO: what if this is called twice?
     @Override
     public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        shutdownAsync();
         if (this.device.isOpen()) {
             this.device.close();
         }
+        if (registry != null) {
+            registry.release(this.device.getPath());
+        }
     }
 
     /**
@@ -54,26 +79,58 @@ public class LedgerHIDAPI extends LedgerDevice {
     @Override
     protected byte[] read(final int waitPeriod) {
         byte[] data = new byte[PACKET_SIZE];
-        int resp = this.device.read(data);
+        int resp = read(data, waitPeriod);
 
-        if (resp < 0) {
-            // TODO: should distinguish this state
+        if (resp <= 0) {
+            // TODO: should distinguish this state (timed out vs. failed)
             return null;
         }
         return data;
     }
 
+    /**
+     * Reads a 64-byte chunk of data directly into {@code out}, without
+     * allocating on our side. Timed reads are performed by hidapi.
+     */
+    @Override
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        if (waitPeriod > 0) {
+            return this.device.read(out, waitPeriod);
+        }
+        return this.device.read(out);
+    }
+
+    /**
+     * Reopens the handle on the same HID path, avoiding any rediscovery
+     */
+    @Override
+    protected boolean reopen() {
+        this.device.close();
+        return this.device.open();
+    }
+
+    /**
+     * Reopens the same Ledger from the registry's current view, which may
+     * hold a new handle for it (it was reattached) or a new path (the path
+     * was republished). Never moves to another physical device, nor to one
+     * claimed by another instance.
+     */
     @Override
     protected void resetLedger() {
         this.device.close();
-        HidServices services = HidManager.getHidServices();
-        services.scan();
-        try {
-            // TODO: violates abstraction
-            this.device = ((LedgerHIDAPI) LedgerUtilities.findLedgerDevice()).device;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+
+        final boolean held = registry != null;
+        final LedgerDeviceRegistry registry = held ? this.registry : LedgerDeviceRegistry.getInstance();
+        final HidDevice replacement = registry.reclaim(this.device, held);
+        if (replacement == null) {
+            throw new RuntimeException("ledger device not attached, HID information: " + this.device);
+        }
+        this.registry = registry;
+
+        if (!replacement.isOpen()) {
+            replacement.open();
         }
+        this.device = replacement;
     }
 
     @Override
@@ -0,0 +1,372 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.LedgerWriteException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.aion.ledger.Constants.INTERFACE_NUMBER;
+import static org.aion.ledger.Constants.VENDOR_LEDGER;
+
+/**
+ * Linux transport talking to {@code /dev/hidrawN} directly through NIO,
+ * without hidapi (JNA) in the path. Devices are discovered from the
+ * attributes the kernel publishes under {@code /sys/class/hidraw}.
+ *
+ * Reads on a hidraw node cannot time out, so a dedicated thread reads
+ * reports into a queue which {@link #read(byte[], int)} polls. Report
+ * buffers are recycled, so steady state exchanges do not allocate. Should
+ * the caller fall behind, the reader stops reading (leaving reports to the
+ * kernel's own queue) rather than dropping any.
+ */
+public class LedgerHidraw extends LedgerDevice {
+
+    private static final Path SYSFS_HIDRAW = Paths.get("/sys/class/hidraw");
+    private static final Path DEV = Paths.get("/dev");
+
+    // reports read ahead of the caller, more than enough for the largest response
+    private static final int QUEUED_REPORTS = 64;
+
+    // Ledger devices do not number their reports, writes are prefixed with report id 0
+    private static final byte REPORT_ID = 0x00;
+
+    @Nullable
+    private final Path path;
+    private final int reportSize;
+
+    private ReadableByteChannel in;
+    private WritableByteChannel out;
+    private Thread reader;
+
+    private final ByteBuffer writeBuffer;
+    private final BlockingQueue<byte[]> ready = new ArrayBlockingQueue<>(QUEUED_REPORTS);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_REPORTS);
+
+    // set if the channel fails (or is closed underneath us), reported on the next read
+    private volatile boolean failed;
+    private volatile boolean closed;
+
+    // set while the channels are deliberately closed, so the reader does not report a failure
+    private volatile boolean stopping;
+
+    /**
+     * Opens the hidraw node at {@code path}, for example {@code /dev/hidraw0}
+     */
+    public LedgerHidraw(@Nonnull final Path path) throws IOException {
+        this(path, open(path), APDUFramer.USB);
+    }
+
+    /**
+     * Speaks hidraw report framing over the given channels, for stand-ins
+     * such as pipes or sockets. Writes are prefixed with the report id,
+     * reads are expected without.
+     */
+    public LedgerHidraw(@Nonnull final ReadableByteChannel in,
+                        @Nonnull final WritableByteChannel out,
+                        @Nonnull final APDUFramer framer) {
+        this(null, in, out, framer);
+    }
+
+    private LedgerHidraw(@Nonnull final Path path,
+                         @Nonnull final FileChannel channel,
+                         @Nonnull final APDUFramer framer) {
+        this(path, channel, channel, framer);
+    }
+
+    private LedgerHidraw(@Nullable final Path path,
+                         @Nonnull final ReadableByteChannel in,
+                         @Nonnull final WritableByteChannel out,
+                         @Nonnull final APDUFramer framer) {
+        super(framer);
+        this.path = path;
+        this.reportSize = framer.getPacketSize();
+        this.writeBuffer = ByteBuffer.allocateDirect(1 + reportSize);
+        for (int i = 0; i < QUEUED_REPORTS; i++) {
+            free.add(new byte[reportSize]);
+        }
+        start(in, out);
+    }
+
+    @Nonnull
+    private static FileChannel open(@Nonnull final Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void start(@Nonnull final ReadableByteChannel in, @Nonnull final WritableByteChannel out) {
+        this.in = in;
+        this.out = out;
+        this.failed = false;
+        this.stopping = false;
+        this.reader = new Thread(() -> readLoop(in), "ledger-hidraw-" + this);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void readLoop(@Nonnull final ReadableByteChannel channel) {
+        byte[] report = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // waits for the caller to catch up, dropping a report would corrupt the response
+                report = free.take();
+
+                final ByteBuffer buf = ByteBuffer.wrap(report);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf) < 0) {
+                        failed = true;
+                        return;
+                    }
+                }
+                ready.put(report);
+                report = null;
+            }
+        } catch (ClosedChannelException | InterruptedException e) {
+            // closed or reopened, unless the channel was closed by an interrupted write
+            if (!stopping) {
+                failed = true;
+            }
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            if (report != null) {
+                free.offer(report);
+            }
+        }
+    }
+
+    private void stop() {
+        stopping = true;
+        try {
+            in.close();
+            if (out != in) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // nothing useful to do, the handle is going away regardless
+        }
+
+        if (reader != null) {
+            reader.interrupt();
+            // the reader must be gone before the queues are reused by a reopen
+            boolean interrupted = false;
+            while (reader.isAlive()) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            reader = null;
+        }
+
+        byte[] report;
+        while ((report = ready.poll()) != null) {
+            free.offer(report);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        shutdownAsync();
+        stop();
+    }
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) throws LedgerWriteException {
+        if (closed) {
+            throw new LedgerWriteException("device closed");
+        }
+
+        if (failed && path != null && !reopen()) {
+            throw new LedgerWriteException("failed to reopen " + this);
+        }
+
+        writeBuffer.clear();
+        writeBuffer.put(REPORT_ID);
+        writeBuffer.put(arg, 0, Math.min(arg.length, reportSize));
+        while (writeBuffer.hasRemaining()) {
+            writeBuffer.put((byte) 0x00);
+        }
+        writeBuffer.flip();
+
+        // an interrupt (such as a cancelled task) would close the channel mid-write, hold it off
+        final boolean interrupted = Thread.interrupted();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                out.write(writeBuffer);
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw new LedgerWriteException("failed to write to " + this + ": " + e.getMessage());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        final byte[] data = new byte[reportSize];
+        return read(data, waitPeriod) > 0 ? data : null;
+    }
+
+    @Override
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        final byte[] report;
+        try {
+            report = waitPeriod > 0 ? ready.poll(waitPeriod, TimeUnit.MILLISECONDS) : ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        if (report == null) {
+            return (closed || failed) ? -1 : 0;
+        }
+
+        final int length = Math.min(report.length, out.length);
+        System.arraycopy(report, 0, out, 0, length);
+        free.offer(report);
+        return length;
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+        // reads are always served from the reader queue
+    }
+
+    /**
+     * Reopens the same hidraw node, only possible for devices opened by path
+     */
+    @Override
+    protected boolean reopen() {
+        if (path == null || closed) {
+            return false;
+        }
+
+        stop();
+        try {
+            final FileChannel channel = open(path);
+            start(channel, channel);
+            return true;
+        } catch (IOException e) {
+            failed = true;
+            return false;
+        }
+    }
+
+    @Override
+    protected void resetLedger() {
+        if (reopen()) {
+            return;
+        }
+
+        // stand-in channels cannot be reopened, discard anything queued
+        byte[] report;
+        while ((report = ready.poll()) != null) {
+            free.offer(report);
+        }
+    }
+
+    /**
+     * @return hidraw nodes of the attached Ledger devices
+     */
+    @Nonnull
+    public static List<Path> findDevices() throws IOException {
+        return findDevices(SYSFS_HIDRAW, DEV);
+    }
+
+    /**
+     * Lists the hidraw nodes under {@code sysfs} (normally {@code /sys/class/hidraw})
+     * belonging to a Ledger, as published in each node's {@code device/uevent}
+     * ({@code HID_ID=bus:vendor:product}) and the USB interface number of the
+     * parent interface.
+     *
+     * @param dev directory containing the device nodes, normally {@code /dev}
+     */
+    @Nonnull
+    static List<Path> findDevices(@Nonnull final Path sysfs, @Nonnull final Path dev) throws IOException {
+        if (!Files.isDirectory(sysfs)) {
+            return Collections.emptyList();
+        }
+
+        final List<Path> devices = new ArrayList<>();
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(sysfs, "hidraw*")) {
+            for (Path node : nodes) {
+                final Path device = node.resolve("device");
+                final Path uevent = device.resolve("uevent");
+                if (!Files.isReadable(uevent)) {
+                    continue;
+                }
+
+                if (readVendorId(uevent) != VENDOR_LEDGER) {
+                    continue;
+                }
+
+                // the hid device sits below the usb interface it belongs to
+                final Path interfaceNumber = device.toRealPath().getParent().resolve("bInterfaceNumber");
+                if (Files.isReadable(interfaceNumber) && readInt(interfaceNumber, 16) != INTERFACE_NUMBER) {
+                    continue;
+                }
+
+                devices.add(dev.resolve(node.getFileName().toString()));
+            }
+        }
+        Collections.sort(devices);
+        return devices;
+    }
+
+    private static int readVendorId(@Nonnull final Path uevent) throws IOException {
+        for (String line : Files.readAllLines(uevent, StandardCharsets.US_ASCII)) {
+            if (line.startsWith("HID_ID=")) {
+                // HID_ID=0003:00002C97:00000001
+                final String[] parts = line.substring("HID_ID=".length()).split(":");
+                if (parts.length == 3) {
+                    try {
+                        return (int) Long.parseLong(parts[1], 16);
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int readInt(@Nonnull final Path attribute, final int radix) throws IOException {
+        final String value = new String(Files.readAllBytes(attribute), StandardCharsets.US_ASCII).trim();
+        try {
+            return Integer.parseInt(value, radix);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path != null ? path.toString() : "hidraw(" + in + ")";
+    }
+}
@@ -0,0 +1,126 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.LedgerWriteException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Decorates a device, recording every report written to and read from it
+ * (with nanosecond timestamps) to a log that {@link LedgerReplay} can serve
+ * back later. Reopens and resets of the device are recorded too, so that
+ * recovery paths replay faithfully.
+ *
+ * Exchanges go through this instance, which applies its own timeout and
+ * {@link RetryPolicy} over the device's reports. Only HID framed devices
+ * can be recorded.
+ */
+public class LedgerRecorder extends LedgerDevice {
+
+    private final LedgerDevice device;
+    private final ReportLog.Appender log;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param device device to record, closed along with this instance
+     * @param log file to record to, replaced if it exists
+     */
+    public LedgerRecorder(@Nonnull final LedgerDevice device, @Nonnull final Path log) throws IOException {
+        super(device.getFramer());
+        if (!device.isFramed()) {
+            throw new IllegalArgumentException("only HID framed devices can be recorded");
+        }
+
+        this.device = device;
+        this.log = new ReportLog.Appender(log, device.getFramer());
+    }
+
+    private void record(final byte type, @Nonnull final byte[] report, final int length) {
+        try {
+            synchronized (log) {
+                log.append(type, System.nanoTime() - origin, report, length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to record " + device, e);
+        }
+    }
+
+    private void record(final byte type) {
+        try {
+            synchronized (log) {
+                log.event(type, System.nanoTime() - origin);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to record " + device, e);
+        }
+    }
+
+    /**
+     * Closes the device and completes the log
+     */
+    @Override
+    public void close() {
+        shutdownAsync();
+        device.close();
+        try {
+            synchronized (log) {
+                log.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to complete recording of " + device, e);
+        }
+    }
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) throws LedgerWriteException {
+        record(ReportLog.WRITE, arg, arg.length);
+        device.write(arg);
+    }
+
+    @Nullable
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        final byte[] data = device.read(waitPeriod);
+        if (data != null) {
+            record(ReportLog.READ, data, data.length);
+        }
+        return data;
+    }
+
+    @Override
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        final int read = device.read(out, waitPeriod);
+        if (read > 0) {
+            record(ReportLog.READ, out, read);
+        }
+        return read;
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+        device.setNonBlocking(cond);
+    }
+
+    @Override
+    protected boolean reopen() {
+        if (!device.reopen()) {
+            return false;
+        }
+        record(ReportLog.REOPEN);
+        return true;
+    }
+
+    @Override
+    protected void resetLedger() {
+        device.resetLedger();
+        record(ReportLog.RESET);
+    }
+
+    @Override
+    public String toString() {
+        return "recording(" + device + ")";
+    }
+}
@@ -0,0 +1,183 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.LedgerWriteException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Device serving back a session recorded by {@link LedgerRecorder}, for
+ * deterministic tests and benchmarks without hardware. Each report read
+ * is served once as much time has passed since the previous record as did
+ * during the recording, scaled by {@link #setTimeScale(double)}.
+ *
+ * Commands written are checked against the recording, a command that
+ * differs from the recorded one fails the write (the replay has diverged,
+ * see {@link #setStrict(boolean)}). Recorded reopens and resets are
+ * replayed when the exchange logic asks for them. Reading when the
+ * recording has no report to serve next (it is exhausted, or moved on to
+ * a write or recovery) fails the read, so an exchange never waits on a
+ * report that will not come.
+ */
+public class LedgerReplay extends LedgerDevice {
+
+    private final ReportLog.Reader log;
+    private volatile double timeScale = 1.0;
+    private volatile boolean strict = true;
+    private volatile boolean closed;
+
+    // time the previous record was served, and its recorded timestamp
+    private long lastServed = System.nanoTime();
+    private long lastRecorded;
+
+    /**
+     * @param log recording made by {@link LedgerRecorder}
+     */
+    public LedgerReplay(@Nonnull final Path log) throws IOException {
+        this(new ReportLog.Reader(log));
+    }
+
+    private LedgerReplay(@Nonnull final ReportLog.Reader log) {
+        super(log.getFramer());
+        this.log = log;
+    }
+
+    /**
+     * @param scale factor applied to the recorded timing, {@code 0} serves
+     *              reports as fast as possible
+     */
+    public void setTimeScale(final double scale) {
+        if (scale < 0) {
+            throw new IllegalArgumentException("scale must not be negative");
+        }
+        this.timeScale = scale;
+    }
+
+    /**
+     * @param strict whether writes must match the recording, if not only
+     *               their order is followed
+     */
+    public void setStrict(final boolean strict) {
+        this.strict = strict;
+    }
+
+    /**
+     * @return whether every recorded report has been served
+     */
+    public boolean isExhausted() {
+        bufferLock.lock();
+        try {
+            return !log.hasNext();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Starts serving the recording again from the beginning, for example to
+     * replay a session repeatedly in a benchmark
+     */
+    public void rewind() {
+        bufferLock.lock();
+        try {
+            log.rewind();
+            lastRecorded = 0;
+            lastServed = System.nanoTime();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        shutdownAsync();
+    }
+
+    /**
+     * Consumes the next record, copying its report into {@code out} if given
+     */
+    private void advance(@Nullable final byte[] out) {
+        lastRecorded = log.peekNanos();
+        lastServed = System.nanoTime();
+        log.next(out);
+    }
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) throws LedgerWriteException {
+        if (closed) {
+            throw new LedgerWriteException("device closed");
+        }
+
+        if (log.peekType() != ReportLog.WRITE) {
+            throw new LedgerWriteException("replay diverged at record " + log.getIndex() + ", no write recorded");
+        }
+
+        if (strict && !log.peekMatches(arg)) {
+            throw new LedgerWriteException("replay diverged at record " + log.getIndex() + ", command differs");
+        }
+        advance(null);
+    }
+
+    @Nullable
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        final byte[] data = new byte[getFramer().getPacketSize()];
+        return read(data, waitPeriod) > 0 ? data : null;
+    }
+
+    @Override
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        if (closed) {
+            return -1;
+        }
+
+        if (log.peekType() != ReportLog.READ) {
+            // nothing was read at this point of the recording, or the recording has ended
+            return -1;
+        }
+
+        final long wait = waitPeriod > 0 ? TimeUnit.MILLISECONDS.toNanos(waitPeriod) : Long.MAX_VALUE;
+        final long due = lastServed + (long) ((log.peekNanos() - lastRecorded) * timeScale);
+        final long remaining = due - System.nanoTime();
+        if (remaining > wait) {
+            LockSupport.parkNanos(wait);
+            return 0;
+        }
+
+        if (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+        advance(out);
+        return Math.min(out.length, getFramer().getPacketSize());
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+    }
+
+    @Override
+    protected boolean reopen() {
+        if (log.peekType() != ReportLog.REOPEN) {
+            return false;
+        }
+        advance(null);
+        return true;
+    }
+
+    @Override
+    protected void resetLedger() {
+        if (log.peekType() == ReportLog.RESET) {
+            advance(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerReplay{record=" + log.getIndex() + ", timeScale=" + timeScale + "}";
+    }
+}
@@ -0,0 +1,287 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.aion.ledger.exceptions.CommsTransportException;
+import org.aion.ledger.exceptions.LedgerWriteException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport for emulators exposing an APDU socket (as Speculos does), for
+ * environments without USB devices. Commands are sent unframed, prefixed
+ * with their length as a 4-byte big-endian integer. Responses are the
+ * 4-byte length of the response data, the data, then the 2-byte status
+ * word.
+ *
+ * Each instance is a single connection, open several instances (one per
+ * emulator, or several against one emulator that accepts them) to run
+ * exchanges in parallel, for example through a
+ * {@link org.aion.ledger.application.LedgerDevicePool}.
+ *
+ * Timeouts set through {@link #setTimeout(long, TimeUnit)} bound each
+ * exchange. A connection that times out or fails is dropped and
+ * re-established on the next exchange, so that a late response is never
+ * mistaken for the next one.
+ */
+public class LedgerTCP extends LedgerDevice {
+
+    /**
+     * Port Speculos serves APDUs on by default
+     */
+    public static final int DEFAULT_PORT = 9999;
+
+    private static final int LENGTH_PREFIX_SIZE = 4;
+    private static final int STATUS_WORD_SIZE = 2;
+
+    // refuse absurd lengths from a misbehaving peer
+    private static final int MAX_RESPONSE_SIZE = 0x10000;
+
+    private final InetSocketAddress address;
+    private volatile long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+    // written under bufferLock, volatile so that close() can interrupt an exchange without it
+    @Nullable
+    private volatile SocketChannel channel;
+    @Nullable
+    private volatile Selector selector;
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(LENGTH_PREFIX_SIZE + 5 + 0xFF);
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocateDirect(LENGTH_PREFIX_SIZE);
+    private volatile boolean closed;
+
+    public LedgerTCP(@Nonnull final String host, final int port) throws IOException {
+        this(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Connects to the APDU socket at {@code address}
+     */
+    public LedgerTCP(@Nonnull final InetSocketAddress address) throws IOException {
+        this.address = address;
+        bufferLock.lock();
+        try {
+            connect(connectTimeoutNanos);
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    public void setConnectTimeout(final long timeout, @Nonnull final TimeUnit unit) {
+        this.connectTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public boolean isFramed() {
+        return false;
+    }
+
+    private void connect(final long timeout) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        final Selector selector = Selector.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_CONNECT);
+
+            if (!channel.connect(address)) {
+                final long deadline = System.nanoTime() + timeout;
+                while (!channel.finishConnect()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new IOException("timed out connecting to " + address);
+                    }
+                    selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    selector.selectedKeys().clear();
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            selector.close();
+            throw e;
+        }
+
+        this.channel = channel;
+        this.selector = selector;
+        if (closed) {
+            // close() may have missed the connection, it was not yet published
+            disconnect();
+            throw new IOException("device closed");
+        }
+    }
+
+    private void disconnect() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // the connection is being discarded regardless
+        }
+        selector = null;
+        channel = null;
+    }
+
+    /**
+     * Closes the connection, failing any exchange in progress
+     */
+    @Override
+    public void close() {
+        closed = true;
+        shutdownAsync();
+
+        // an exchange may be waiting on the selector while holding the lock
+        final SocketChannel channel = this.channel;
+        final Selector selector = this.selector;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // the connection is being discarded regardless
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+
+        bufferLock.lock();
+        try {
+            disconnect();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    @Override
+    protected int transmit(@Nonnull final byte[] input,
+                           final int inputOffset,
+                           final int inputLength,
+                           final long timeout) throws CommsException {
+        if (closed) {
+            throw new CommsTransportException("device closed");
+        }
+
+        final long deadline = timeout > 0 ? System.nanoTime() + timeout : 0;
+        try {
+            if (channel == null) {
+                connect(timeout > 0 ? Math.min(timeout, connectTimeoutNanos) : connectTimeoutNanos);
+            }
+
+            if (writeBuffer.capacity() < LENGTH_PREFIX_SIZE + inputLength) {
+                writeBuffer = ByteBuffer.allocateDirect(LENGTH_PREFIX_SIZE + inputLength);
+            }
+            writeBuffer.clear();
+            writeBuffer.putInt(inputLength);
+            writeBuffer.put(input, inputOffset, inputLength);
+            writeBuffer.flip();
+            transfer(writeBuffer, SelectionKey.OP_WRITE, deadline);
+
+            lengthBuffer.clear();
+            transfer(lengthBuffer, SelectionKey.OP_READ, deadline);
+            final int dataLength = lengthBuffer.getInt(0);
+            if (dataLength < 0 || dataLength > MAX_RESPONSE_SIZE) {
+                throw new IOException("invalid response length " + dataLength);
+            }
+
+            final int responseLength = dataLength + STATUS_WORD_SIZE;
+            final byte[] response = responseBuffer(responseLength);
+            transfer(ByteBuffer.wrap(response, 0, responseLength), SelectionKey.OP_READ, deadline);
+            return responseLength;
+        } catch (IOException e) {
+            disconnect();
+            throw new CommsTransportException("failed to exchange with " + address, e);
+        } catch (CommsException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes out, or reads into, the remainder of {@code buf}
+     *
+     * @param deadline as given by {@link System#nanoTime()}, {@code 0} to wait indefinitely
+     */
+    private void transfer(@Nonnull final ByteBuffer buf,
+                          final int op,
+                          final long deadline) throws IOException, CommsException {
+        final SocketChannel channel = this.channel;
+        final Selector selector = this.selector;
+        final SelectionKey key = channel.keyFor(selector);
+        key.interestOps(op);
+
+        while (buf.hasRemaining()) {
+            final int n = op == SelectionKey.OP_WRITE ? channel.write(buf) : channel.read(buf);
+            if (n < 0) {
+                throw new IOException("connection closed by " + address);
+            }
+
+            if (n > 0 || !buf.hasRemaining()) {
+                continue;
+            }
+
+            long wait = 0;
+            if (deadline != 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new CommsTimeoutException("no response from " + address + " in time");
+                }
+                wait = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+
+            selector.select(wait);
+            selector.selectedKeys().clear();
+            if (closed) {
+                throw new CommsTransportException("device closed");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CommsException("interrupted while waiting for " + address);
+            }
+        }
+    }
+
+    // the HID level primitives are unused, whole APDUs go through transmit
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) throws LedgerWriteException {
+        throw new LedgerWriteException("transport does not use HID framing");
+    }
+
+    @Nullable
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        return null;
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+    }
+
+    /**
+     * Drops the connection, it is re-established on the next exchange
+     */
+    @Override
+    protected void resetLedger() {
+        bufferLock.lock();
+        try {
+            disconnect();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "tcp://" + address.getHostString() + ":" + address.getPort();
+    }
+}
@@ -1,15 +1,21 @@
 package org.aion.ledger;
 
 import org.apache.commons.lang3.SystemUtils;
-import org.hid4java.HidManager;
-import org.hid4java.HidServices;
-import org.hid4java.HidServicesSpecification;
-import org.hid4java.ScanMode;
-import org.hid4java.jna.HidApi;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.aion.ledger.Constants.INTERFACE_NUMBER;
 import static org.aion.ledger.Constants.LIB_NATIVE;
@@ -17,11 +23,6 @@ import static org.aion.ledger.Constants.USAGE_PAGE_LEDGER;
 
 public class LedgerUtilities {
 
-    static {
-        // https://github.com/gary-rowe/hid4java/pull/43
-        HidApi.dropReportIdZero = false;
-    }
-
     @Nonnull
     private static void entry(StringBuilder builder, String entry, String value) {
         builder.append(entry);
@@ -32,37 +33,114 @@ public class LedgerUtilities {
 
     @Nullable
     private static LedgerDevice findLedgerDeviceHIDAPI() {
-        HidServicesSpecification specs = new HidServicesSpecification();
-        HidServices services = HidManager.getHidServices(specs);
+        final LedgerDeviceRegistry registry = LedgerDeviceRegistry.getInstance();
+        final org.hid4java.HidDevice device = registry.claimFirst();
+        if (device == null) {
+            // nothing found
+            return null;
+        }
+
+        if (!device.isOpen()) {
+            device.open();
+        }
+        return new LedgerHIDAPI(device, registry);
+    }
+
+    @Nonnull
+    private static List<LedgerDevice> findLedgerDevicesHIDAPI() {
+        final LedgerDeviceRegistry registry = LedgerDeviceRegistry.getInstance();
+        final List<org.hid4java.HidDevice> matches = registry.claimAll();
+        if (matches.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-        for (org.hid4java.HidDevice device : services.getAttachedHidDevices()) {
-            if (isLedger(device.getVendorId(), device.getProduct(),
-                    device.getUsagePage(), device.getInterfaceNumber())) {
+        // opening a handle can take a while per device, do so in parallel
+        final ExecutorService executor = Executors.newFixedThreadPool(matches.size());
+        try {
+            final List<CompletableFuture<LedgerDevice>> opened = new ArrayList<>();
+            for (org.hid4java.HidDevice device : matches) {
+                opened.add(CompletableFuture.supplyAsync(() -> {
+                    if (!device.isOpen() && !device.open()) {
+                        return null;
+                    }
+                    return (LedgerDevice) new LedgerHIDAPI(device, registry);
+                }, executor).exceptionally(e -> null).thenApply(ledger -> {
+                    if (ledger == null) {
+                        // not ours to hold if it cannot be opened
+                        registry.release(device.getPath());
+                    }
+                    return ledger;
+                }));
+            }
 
-                if (!device.isOpen()) {
-                    device.open();
+            final List<LedgerDevice> devices = new ArrayList<>();
+            for (CompletableFuture<LedgerDevice> future : opened) {
+                final LedgerDevice device = future.join();
+                if (device != null) {
+                    devices.add(device);
                 }
-                return new LedgerHIDAPI(device);
             }
+            return devices;
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        // nothing found
-        return null;
+    @Nullable
+    private static LedgerDevice findLedgerDeviceHidraw() throws IOException {
+        final List<Path> paths = LedgerHidraw.findDevices();
+        return paths.isEmpty() ? null : new LedgerHidraw(paths.get(0));
+    }
+
+    @Nonnull
+    private static List<LedgerDevice> findLedgerDevicesHidraw() throws IOException {
+        final List<LedgerDevice> devices = new ArrayList<>();
+        for (Path path : LedgerHidraw.findDevices()) {
+            try {
+                devices.add(new LedgerHidraw(path));
+            } catch (IOException e) {
+                // skip devices we cannot open, as with hidapi
+            }
+        }
+        return devices;
     }
 
+    /**
+     * Finds and opens the first attached Ledger device. Uses hidapi when
+     * {@link Constants#LIB_NATIVE} is set, otherwise hidraw (Linux only).
+     */
     @Nullable
     public static LedgerDevice findLedgerDevice() throws IOException {
         if (LIB_NATIVE) {
             return findLedgerDeviceHIDAPI();
+        } else if (SystemUtils.IS_OS_LINUX) {
+            return findLedgerDeviceHidraw();
         } else {
             throw new UnsupportedOperationException();
         }
     }
 
-    private static boolean isLedger(final int vendorId,
-                                    @Nonnull final String productString,
-                                    final int usagePage,
-                                    final int interfaceNumber) {
+    /**
+     * Finds and opens every attached Ledger device, devices that fail to
+     * open are skipped.
+     *
+     * @return opened devices, empty if none were found
+     */
+    @Nonnull
+    public static List<LedgerDevice> findLedgerDevices() throws IOException {
+        if (LIB_NATIVE) {
+            return findLedgerDevicesHIDAPI();
+        } else if (SystemUtils.IS_OS_LINUX) {
+            return findLedgerDevicesHidraw();
+        } else {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static boolean isLedger(final int vendorId,
+                            @Nonnull final String productString,
+                            final int usagePage,
+                            final int interfaceNumber) {
         // TODO: this area needs work, original implement not picking up Nano S
         // TODO: the second condition specified below (for fallback on Mac OS and Windows currently not included)
         // see: https://github.com/LedgerHQ/ledgerjs/blob/master/packages/hw-transport-node-hid/src/getDevices.js
@@ -85,70 +163,205 @@ public class LedgerUtilities {
 
     @Nonnull
     public static String intToHex(int amount) {
-        // TODO: this can be optimised
-        return "0x" + bytesToHex(toByteArray(amount));
+        return appendHexDigits(new StringBuilder(10).append("0x"), amount, 8).toString();
     }
 
     @Nonnull
     public static String shortToHex(short amount) {
-        return "0x" + bytesToHex(toByteArray(amount));
+        return appendHexDigits(new StringBuilder(6).append("0x"), amount, 4).toString();
     }
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
+
+    // maps an ASCII character to its nibble value, -1 for non-hex characters
+    private final static byte[] hexDecodeTable = new byte[128];
+    static {
+        Arrays.fill(hexDecodeTable, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            hexDecodeTable['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            hexDecodeTable['A' + i] = (byte) (10 + i);
+            hexDecodeTable['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    @Nonnull
+    private static StringBuilder appendHexDigits(@Nonnull final StringBuilder builder,
+                                                 final int value,
+                                                 final int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            builder.append(hexArray[(value >>> shift) & 0x0F]);
+        }
+        return builder;
+    }
+
     @Nonnull
     public static String bytesToHex(byte[] bytes) {
         char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
+        encodeHex(bytes, 0, bytes.length, hexChars, 0);
         return new String(hexChars);
     }
 
-    // from: https://stackoverflow.com/questions/2648242/is-this-the-best-way-to-convert-string-hex-to-bytes
-    // with some minor tweaks
+    /**
+     * Encodes {@code length} bytes as (uppercase) hex into {@code out}
+     *
+     * @return number of characters written, always {@code 2 * length}
+     */
+    public static int encodeHex(@Nonnull final byte[] bytes,
+                                final int offset,
+                                final int length,
+                                @Nonnull final char[] out,
+                                final int outOffset) {
+        for (int i = 0, j = outOffset; i < length; i++) {
+            final int v = bytes[offset + i] & 0xFF;
+            out[j++] = hexArray[v >>> 4];
+            out[j++] = hexArray[v & 0x0F];
+        }
+        return length << 1;
+    }
+
+    /**
+     * Encodes {@code length} bytes as hex into {@code out}, advancing its position
+     */
+    public static void encodeHex(@Nonnull final byte[] bytes,
+                                 final int offset,
+                                 final int length,
+                                 @Nonnull final CharBuffer out) {
+        if (out.remaining() < length << 1) {
+            throw new BufferOverflowException();
+        }
+
+        if (out.hasArray()) {
+            final int written = encodeHex(bytes, offset, length, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + written);
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            final int v = bytes[offset + i] & 0xFF;
+            out.put(hexArray[v >>> 4]);
+            out.put(hexArray[v & 0x0F]);
+        }
+    }
+
     @Nonnull
-    public static byte[] hexToBytes(@Nonnull String hex) {
-        if (hex.length() % 2 != 0) {
-            throw new IllegalArgumentException("Must pass an even number of characters.");
+    public static StringBuilder appendHex(@Nonnull final StringBuilder builder,
+                                          @Nonnull final byte[] bytes,
+                                          final int offset,
+                                          final int length) {
+        builder.ensureCapacity(builder.length() + (length << 1));
+        for (int i = 0; i < length; i++) {
+            final int v = bytes[offset + i] & 0xFF;
+            builder.append(hexArray[v >>> 4]);
+            builder.append(hexArray[v & 0x0F]);
+        }
+        return builder;
+    }
+
+    @Nonnull
+    public static Appendable appendHex(@Nonnull final Appendable out,
+                                       @Nonnull final byte[] bytes,
+                                       final int offset,
+                                       final int length) throws IOException {
+        if (out instanceof StringBuilder) {
+            return appendHex((StringBuilder) out, bytes, offset, length);
+        }
+
+        for (int i = 0; i < length; i++) {
+            final int v = bytes[offset + i] & 0xFF;
+            out.append(hexArray[v >>> 4]);
+            out.append(hexArray[v & 0x0F]);
+        }
+        return out;
+    }
+
+    /**
+     * Streams {@code length} bytes as hex to {@code out}, encoding through
+     * the caller supplied {@code scratch} buffer in chunks. Suited to large
+     * outputs (ex. address dumps), no intermediate objects are created.
+     *
+     * @param scratch reusable buffer, must hold at least 2 characters
+     */
+    public static void writeHex(@Nonnull final Writer out,
+                                @Nonnull final byte[] bytes,
+                                final int offset,
+                                final int length,
+                                @Nonnull final char[] scratch) throws IOException {
+        final int chunk = scratch.length >> 1;
+        if (chunk == 0) {
+            throw new IllegalArgumentException("scratch must hold at least 2 characters");
         }
 
-        if (hex.substring(0, 2).equals("0x")) {
-            hex = hex.substring(2);
+        for (int pos = 0; pos < length; pos += chunk) {
+            final int amount = Math.min(chunk, length - pos);
+            out.write(scratch, 0, encodeHex(bytes, offset + pos, amount, scratch, 0));
         }
+    }
 
-        return hexToBytes(hex.toCharArray());
+    private static boolean hasHexPrefix(@Nonnull final CharSequence hex, final int offset, final int length) {
+        return length >= 2 && hex.charAt(offset) == '0' && hex.charAt(offset + 1) == 'x';
     }
 
+    // from: https://stackoverflow.com/questions/2648242/is-this-the-best-way-to-convert-string-hex-to-bytes
+    // with some minor tweaks
     @Nonnull
-    private static byte[] hexToBytes(@Nonnull char[] hex) {
-        if (hex.length % 2 != 0) {
+    public static byte[] hexToBytes(@Nonnull String hex) {
+        if (hex.length() % 2 != 0) {
             throw new IllegalArgumentException("Must pass an even number of characters.");
         }
 
-        int length = hex.length >> 1;
-        byte[] raw = new byte[length];
-        for (int o = 0, i = 0; o < length; o++) {
-            raw[o] = (byte) ((getHexCharValue(hex[i++]) << 4)
-                    | getHexCharValue(hex[i++]));
-        }
+        final int start = hasHexPrefix(hex, 0, hex.length()) ? 2 : 0;
+        final byte[] raw = new byte[(hex.length() - start) >> 1];
+        hexToBytes(hex, start, hex.length() - start, raw, 0);
         return raw;
     }
 
-    private static byte getHexCharValue(char c) {
-        if (c >= '0' && c <= '9') {
-            return (byte) (c - '0');
+    /**
+     * Decodes hex characters directly into {@code out}, an optional
+     * {@code 0x} prefix is skipped.
+     *
+     * @param hex characters to decode
+     * @param offset offset of the first character within {@code hex}
+     * @param length number of characters to decode
+     * @param out destination of the decoded bytes
+     * @param outOffset offset within {@code out} to write at
+     * @return number of bytes written to {@code out}
+     */
+    public static int hexToBytes(@Nonnull final CharSequence hex,
+                                 int offset,
+                                 int length,
+                                 @Nonnull final byte[] out,
+                                 final int outOffset) {
+        if (hasHexPrefix(hex, offset, length)) {
+            offset += 2;
+            length -= 2;
         }
 
-        if (c >= 'A' && c <= 'F') {
-            return (byte) (10 + c - 'A');
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Must pass an even number of characters.");
+        }
+
+        final int outLength = length >> 1;
+        if (out.length - outOffset < outLength) {
+            throw new IllegalArgumentException("output buffer too small for " + outLength + " bytes");
         }
 
-        if (c >= 'a' && c <= 'f') {
-            return (byte) (10 + c - 'a');
+        for (int o = outOffset, i = offset, end = outOffset + outLength; o < end; o++) {
+            final int hi = getHexCharValue(hex.charAt(i++));
+            final int lo = getHexCharValue(hex.charAt(i++));
+
+            // an invalid character maps to -1, which sets the sign bit of the OR if either is invalid
+            if ((hi | lo) < 0) {
+                throw new IllegalArgumentException("Invalid hex character");
+            }
+            out[o] = (byte) ((hi << 4) | lo);
         }
-        throw new IllegalArgumentException("Invalid hex character");
+        return outLength;
+    }
+
+    private static int getHexCharValue(char c) {
+        return c < 128 ? hexDecodeTable[c] : -1;
     }
 
     /**
@@ -168,14 +381,6 @@ public class LedgerUtilities {
         return val;
     }
 
-    @Nonnull
-    private static byte[] toByteArray(final short i) {
-        final byte[] val = new byte[2];
-        val[1] = (byte) (i & 0xFF);
-        val[0] = (byte) ((i >> 8) & 0xFF);
-        return val;
-    }
-
     @Nonnull
     public static byte[] toHardenedOffset(final int i) {
         byte[] offset = toByteArray(i);
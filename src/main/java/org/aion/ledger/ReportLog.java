@@ -0,0 +1,230 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary log of the reports exchanged with a device, written by
+ * {@link LedgerRecorder} and served back by {@link LedgerReplay}.
+ *
+ * A 64-byte header (magic, version, framing, record count, length) is
+ * followed by records of a type byte, a timestamp (nanoseconds since the
+ * start of the recording) and, for reports, {@code packetSize} bytes of
+ * report. The log is appended to through memory-mapped regions.
+ */
+final class ReportLog {
+
+    static final byte WRITE = 1;
+    static final byte READ = 2;
+    static final byte REOPEN = 3;
+    static final byte RESET = 4;
+
+    private static final long MAGIC = 0x4C344A5245433031L; // "L4JREC01"
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 8;
+    private static final int CHANNEL_POS = 12;
+    private static final int PACKET_SIZE_POS = 16;
+    private static final int BLE_POS = 20;
+    private static final int RECORDS_POS = 24;
+    private static final int LENGTH_POS = 32;
+
+    private static final int EVENT_SIZE = 1 + 8;
+    private static final byte[] NO_REPORT = new byte[0];
+
+    // files grow one mapped region at a time
+    private static final int REGION_SIZE = 1 << 20;
+
+    private ReportLog() {
+    }
+
+    static int recordSize(final byte type, final int packetSize) {
+        return type == WRITE || type == READ ? EVENT_SIZE + packetSize : EVENT_SIZE;
+    }
+
+    /**
+     * Appends records, not thread-safe
+     */
+    static final class Appender implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final int packetSize;
+        private MappedByteBuffer region;
+        private long regionStart;
+        private long records;
+        private boolean closed;
+
+        Appender(@Nonnull final Path path, @Nonnull final APDUFramer framer) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.packetSize = framer.getPacketSize();
+            try {
+                this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putLong(MAGIC_POS, MAGIC);
+                header.putInt(VERSION_POS, VERSION);
+                header.putInt(CHANNEL_POS, framer.getChannel());
+                header.putInt(PACKET_SIZE_POS, packetSize);
+                header.put(BLE_POS, (byte) (framer.isBle() ? 1 : 0));
+                header.putLong(RECORDS_POS, 0);
+                header.putLong(LENGTH_POS, HEADER_SIZE);
+                map(HEADER_SIZE);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void map(final long start) throws IOException {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+            regionStart = start;
+        }
+
+        void append(final byte type, final long nanos, @Nonnull final byte[] report, final int length) throws IOException {
+            if (closed) {
+                throw new IOException("log closed");
+            }
+
+            final int size = recordSize(type, packetSize);
+            if (region.remaining() < size) {
+                map(regionStart + region.position());
+            }
+
+            region.put(type);
+            region.putLong(nanos);
+            if (size > EVENT_SIZE) {
+                final int n = Math.min(length, packetSize);
+                region.put(report, 0, n);
+                for (int i = n; i < packetSize; i++) {
+                    region.put((byte) 0x00);
+                }
+            }
+
+            // the header always describes a complete log
+            records++;
+            header.putLong(LENGTH_POS, regionStart + region.position());
+            header.putLong(RECORDS_POS, records);
+        }
+
+        void event(final byte type, final long nanos) throws IOException {
+            append(type, nanos, NO_REPORT, 0);
+        }
+
+        /**
+         * Trims the unused tail of the last region and forces the log to disk
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            final long length = header.getLong(LENGTH_POS);
+            region.force();
+            header.force();
+            channel.truncate(length);
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads records sequentially from a memory-mapped log, not thread-safe
+     */
+    static final class Reader {
+        private final MappedByteBuffer buf;
+        private final APDUFramer framer;
+        private final long records;
+        private long index;
+
+        Reader(@Nonnull final Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException(path + " is not a report log");
+                }
+
+                final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                if (header.getLong(MAGIC_POS) != MAGIC || header.getInt(VERSION_POS) != VERSION) {
+                    throw new IOException(path + " is not a report log");
+                }
+
+                final long length = header.getLong(LENGTH_POS);
+                if (length > Integer.MAX_VALUE || length > channel.size()) {
+                    throw new IOException(path + " is truncated or too large to replay");
+                }
+
+                this.framer = new APDUFramer(header.getInt(CHANNEL_POS), header.getInt(PACKET_SIZE_POS),
+                        header.get(BLE_POS) != 0);
+                this.records = header.getLong(RECORDS_POS);
+                this.buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                this.buf.position(HEADER_SIZE);
+            }
+        }
+
+        @Nonnull
+        APDUFramer getFramer() {
+            return framer;
+        }
+
+        void rewind() {
+            buf.position(HEADER_SIZE);
+            index = 0;
+        }
+
+        boolean hasNext() {
+            return index < records;
+        }
+
+        long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return type of the next record, {@code 0} if there is none
+         */
+        byte peekType() {
+            return hasNext() ? buf.get(buf.position()) : 0;
+        }
+
+        long peekNanos() {
+            return buf.getLong(buf.position() + 1);
+        }
+
+        /**
+         * @return whether the report of the next record equals {@code report}
+         */
+        boolean peekMatches(@Nonnull final byte[] report) {
+            final int start = buf.position() + EVENT_SIZE;
+            final int n = Math.min(report.length, framer.getPacketSize());
+            for (int i = 0; i < n; i++) {
+                if (buf.get(start + i) != report[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Consumes the next record, copying its report (if any) into {@code out} if given
+         */
+        void next(@Nullable final byte[] out) {
+            final byte type = buf.get();
+            buf.getLong();
+            if (type == WRITE || type == READ) {
+                final int n = out == null ? 0 : Math.min(out.length, framer.getPacketSize());
+                if (n > 0) {
+                    buf.get(out, 0, n);
+                }
+                buf.position(buf.position() + framer.getPacketSize() - n);
+            }
+            index++;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how {@link LedgerDevice} recovers from transport failures during
+ * an exchange: which failures are retried, how long to back off between
+ * attempts and how to recover the device before the command is rewritten.
+ *
+ * Backoff grows exponentially from {@code initialBackoff} up to
+ * {@code maxBackoff}, randomised by {@code jitter} (a fraction of the
+ * backoff). Retrying stops once the next attempt would exceed the budget,
+ * measured in wall time from the first failure of the exchange (time spent
+ * waiting for the user to confirm beforehand does not count), or would
+ * exceed the timeout of the exchange itself.
+ *
+ * The first {@code reopenAttempts} recoveries of an exchange reopen the
+ * same device (see {@link LedgerDevice#reopen()}), which is far cheaper
+ * than a full {@link LedgerDevice#resetLedger()}; later ones reset.
+ *
+ * Subclasses may override {@link #isRetryable(Failure)},
+ * {@link #backoffNanos(int)} and {@link #shouldReopen(int)} for finer
+ * control.
+ */
+public class RetryPolicy {
+
+    /**
+     * Classification of transport failures
+     */
+    public enum Failure {
+        /**
+         * The device answered on the wrong HID interface
+         * (see {@link LedgerDevice#SPECIAL_FAIL_ARR}), seen on MacOS
+         */
+        WRONG_PATH,
+
+        /**
+         * A response frame could not be deserialized
+         */
+        CORRUPT_FRAME,
+
+        /**
+         * Reading from the device failed outright
+         */
+        READ_FAILED
+    }
+
+    /**
+     * Retries wrongly published paths for up to 2 seconds, reopening once
+     * before resetting: the command never reached the app, so resending it
+     * is safe. Failed reads and corrupt frames are not retried, as the app
+     * may have processed the command already and resending a signing
+     * command would prompt the user again (or sign twice).
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(
+            5, 200, 2.0, 0.2, 2000, TimeUnit.MILLISECONDS,
+            EnumSet.of(Failure.WRONG_PATH), 1);
+
+    /**
+     * As {@link #DEFAULT}, also retrying failed reads. Only for devices used
+     * with idempotent instructions, such as public key lookups.
+     */
+    public static final RetryPolicy IDEMPOTENT = new RetryPolicy(
+            5, 200, 2.0, 0.2, 2000, TimeUnit.MILLISECONDS,
+            EnumSet.of(Failure.WRONG_PATH, Failure.READ_FAILED), 1);
+
+    /**
+     * Never retries, every failure is reported immediately
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(
+            0, 0, 1.0, 0, 0, TimeUnit.MILLISECONDS, EnumSet.noneOf(Failure.class), 0);
+
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final double multiplier;
+    private final double jitter;
+    private final long budgetNanos;
+    private final Set<Failure> retryable;
+    private final int reopenAttempts;
+
+    /**
+     * @param initialBackoff backoff before the first retry
+     * @param maxBackoff upper bound on the backoff
+     * @param multiplier growth of the backoff per attempt, >= 1
+     * @param jitter fraction of the backoff to randomise by, between 0 and 1
+     * @param budget time allowed for retries, from the first failure of an exchange
+     * @param unit unit of {@code initialBackoff}, {@code maxBackoff} and {@code budget}
+     * @param retryable failures that are retried
+     * @param reopenAttempts number of recoveries per exchange that reopen rather than reset
+     */
+    public RetryPolicy(final long initialBackoff,
+                       final long maxBackoff,
+                       final double multiplier,
+                       final double jitter,
+                       final long budget,
+                       @Nonnull final TimeUnit unit,
+                       @Nonnull final Set<Failure> retryable,
+                       final int reopenAttempts) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be >= 1");
+        }
+
+        if (jitter < 0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.budgetNanos = unit.toNanos(budget);
+        this.retryable = retryable.isEmpty() ? EnumSet.noneOf(Failure.class) : EnumSet.copyOf(retryable);
+        this.reopenAttempts = reopenAttempts;
+    }
+
+    public boolean isRetryable(@Nonnull final Failure failure) {
+        return retryable.contains(failure);
+    }
+
+    /**
+     * @param attempt number of recoveries already made in this exchange, starting at 0
+     * @return time to wait before the next attempt
+     */
+    public long backoffNanos(final int attempt) {
+        if (initialBackoffNanos <= 0) {
+            return 0;
+        }
+
+        final double base = Math.min(maxBackoffNanos, initialBackoffNanos * Math.pow(multiplier, attempt));
+        if (jitter == 0) {
+            return (long) base;
+        }
+        final double spread = base * jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        return Math.max(0L, (long) (base + spread));
+    }
+
+    /**
+     * @param attempt number of recoveries already made in this exchange, starting at 0
+     * @return whether to attempt a reopen before falling back to a reset
+     */
+    public boolean shouldReopen(final int attempt) {
+        return attempt < reopenAttempts;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{initialBackoff=" + TimeUnit.NANOSECONDS.toMillis(initialBackoffNanos)
+                + "ms, maxBackoff=" + TimeUnit.NANOSECONDS.toMillis(maxBackoffNanos)
+                + "ms, multiplier=" + multiplier
+                + ", jitter=" + jitter
+                + ", budget=" + TimeUnit.NANOSECONDS.toMillis(budgetNanos)
+                + "ms, retryable=" + retryable
+                + ", reopenAttempts=" + reopenAttempts + "}";
+    }
+}
@@ -1,5 +1,7 @@
 package org.aion.ledger.application;
 
+import org.aion.ledger.APDUFramer;
+import org.aion.ledger.ExchangeResult;
 import org.aion.ledger.KeyAddress;
 import org.aion.ledger.LedgerDevice;
 import org.aion.ledger.LedgerUtilities;
@@ -7,14 +9,45 @@ import org.aion.ledger.exceptions.CommsException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-
-import static org.aion.ledger.LedgerUtilities.toHardenedOffset;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class AionApp {
 
     private final LedgerDevice ledgerDevice;
 
+    // scratch buffers reused across calls, guarded by synchronizing on command
+    // always taken after the device is acquired, so that callers queue on the
+    // device (by priority) rather than on this monitor
+    private final byte[] command = new byte[MAX_APDU_SIZE];
+    private final byte[] response = new byte[PUBLIC_KEY_RESPONSE_SIZE];
+    private final ExchangeResult result = new ExchangeResult();
+    @Nullable
+    private CommandTemplate.Framed framedPublicKey;
+
+    private final CommandTemplate publicKeyTemplate;
+    private final CommandTemplate signTemplate;
+    private final CommandTemplate personalMessageTemplate;
+
+    // scope of public keys in the cache, the device unless on a custom path
+    private final Object cacheScope;
+
+    @Nullable
+    private volatile PublicKeyCache publicKeyCache;
+
     /**
      * Aion specific functionality, configures the ledger to correspond
      * to the Ledger AION application
@@ -22,29 +55,156 @@ public class AionApp {
      * @param ledgerDevice underlying ledger device
      */
     public AionApp(LedgerDevice ledgerDevice) {
+        this(ledgerDevice, 0, 0);
+    }
+
+    /**
+     * Variant of {@link #AionApp(LedgerDevice)} deriving keys along a custom
+     * BIP44 account and change, {@code 44'/425'/account'/change'/offset'}
+     * (rather than {@code 44'/425'/0'/0'/offset'})
+     *
+     * @param ledgerDevice underlying ledger device
+     * @param account BIP44 account, hardened
+     * @param change BIP44 change, hardened
+     */
+    public AionApp(@Nonnull final LedgerDevice ledgerDevice, final int account, final int change) {
         this.ledgerDevice = ledgerDevice;
+        this.publicKeyTemplate = CommandTemplate.publicKey(account, change);
+        this.signTemplate = CommandTemplate.sign(account, change);
+        this.personalMessageTemplate = CommandTemplate.signPersonalMessage(account, change);
+        this.cacheScope = account == 0 && change == 0 ? ledgerDevice : this;
+    }
+
+    /**
+     * Serves public key lookups through {@code cache}, keyed by the
+     * underlying device. The same cache may be shared across instances,
+     * keys of instances on a custom path are kept apart (per instance).
+     *
+     * @param cache cache to use, {@code null} to always query the device
+     */
+    public void setPublicKeyCache(@Nullable final PublicKeyCache cache) {
+        this.publicKeyCache = cache;
+    }
+
+    @Nullable
+    public PublicKeyCache getPublicKeyCache() {
+        return publicKeyCache;
     }
 
     // AION specific functionality
 
     // this is (most likely?) specific to Ledger's AION Application
-    private static final byte   INS_GET_PUBLIC_KEY = 0x02;
-    private static final byte   INS_SIGN = 0x04;
+    static final byte           INS_GET_PUBLIC_KEY = 0x02;
+    static final byte           INS_SIGN = 0x04;
     private static final byte   INS_GET_APP_CONFIGURATION = 0x06;
-    private static final byte   INS_SIGN_PERSONAL_MESSAGE = 0x08;
+    static final byte           INS_SIGN_PERSONAL_MESSAGE = 0x08;
     private static final int    INS_CMD_SIZE = 1;
 
-    private static final int    AION_APP_PREFIX = 0xe0;
+    static final int            AION_APP_PREFIX = 0xe0;
     private static final int    AION_APP_PREFIX_SIZE = 1;
 
     private static final byte[] HEADER_CMD_PADDING = new byte[] {(byte) 0x00, (byte) 0x00};
     private static final int    HEADER_CMD_PADDING_SIZE = 2;
-    private static final int    HEADER_PAYLOAD_SIZE = 2;
+    static final int            HEADER_PAYLOAD_SIZE = 2;
 
     // BIP44 specific path
     // 44'/425'/0/0
     private static final byte[] BIP44_PATH = LedgerUtilities.hexToBytes("8000002C800001A98000000080000000");
     private static final long BIP44_MAX_OFFSET = 0x0FFFFFFFL;
+    static final int BIP32_PATH_SIZE = 20;
+    static final int HARDENED = 0x80000000;
+
+    static final int HEADER_SIZE = AION_APP_PREFIX_SIZE +
+            INS_CMD_SIZE + HEADER_CMD_PADDING_SIZE + HEADER_PAYLOAD_SIZE;
+    private static final int MAX_APDU_SIZE = HEADER_SIZE + BIP32_PATH_SIZE + 0xFF;
+
+    // payloads larger than a single command are sent in chunks, P1 marks the
+    // first chunk (carrying the path) or a continuation, P2 whether more follow
+    private static final byte P1_FIRST = 0x00;
+    private static final byte P1_MORE = (byte) 0x80;
+    private static final byte P2_LAST = 0x00;
+    private static final byte P2_MORE = (byte) 0x80;
+    private static final int CONTINUATION_HEADER_SIZE = 5;
+    static final int MAX_FIRST_CHUNK = 0xFF - BIP32_PATH_SIZE - 1;
+    private static final int MAX_CHUNK = 0xFF;
+
+    private static final int PUBLIC_KEY_SIZE = 32;
+    private static final int ADDRESS_SIZE = 32;
+    private static final int PUBLIC_KEY_RESPONSE_SIZE = PUBLIC_KEY_SIZE + ADDRESS_SIZE;
+    private static final int SIGNATURE_SIZE = 64;
+
+    static void checkOffset(final int offset) {
+        final long offsetExpanded = offset & 0x00000000FFFFFFFFL;
+
+        if (offsetExpanded > BIP44_MAX_OFFSET) {
+            throw new IllegalArgumentException("offset cannot be greater than BIP44_MAX_OFFSET=" + BIP44_MAX_OFFSET);
+        }
+    }
+
+    /**
+     * Writes the BIP44 path (see {@link #generateBip32Path(int)}) directly
+     * into {@code out}, without any intermediate allocations.
+     *
+     * @return number of bytes written (20)
+     */
+    static int writeBip32Path(final int offset, @Nonnull final byte[] out, final int outOffset) {
+        checkOffset(offset);
+        System.arraycopy(BIP44_PATH, 0, out, outOffset, BIP44_PATH.length);
+
+        writeHardened(offset, out, outOffset + BIP44_PATH.length);
+        return BIP32_PATH_SIZE;
+    }
+
+    /**
+     * Writes the BIP44 path {@code 44'/425'/account'/change'/offset'} into
+     * {@code out}
+     *
+     * @return number of bytes written (20)
+     */
+    static int writeBip32Path(final int account,
+                              final int change,
+                              final int offset,
+                              @Nonnull final byte[] out,
+                              final int outOffset) {
+        checkOffset(offset);
+        // purpose and coin type are shared with the default path
+        System.arraycopy(BIP44_PATH, 0, out, outOffset, 8);
+        writeHardened(account, out, outOffset + 8);
+        writeHardened(change, out, outOffset + 12);
+        writeHardened(offset, out, outOffset + 16);
+        return BIP32_PATH_SIZE;
+    }
+
+    // writes one hardened element of the path
+    static void writeHardened(final int value, @Nonnull final byte[] out, final int pos) {
+        out[pos] = (byte) ((value | HARDENED) >>> 24);
+        out[pos + 1] = (byte) (value >>> 16);
+        out[pos + 2] = (byte) (value >>> 8);
+        out[pos + 3] = (byte) value;
+    }
+
+    private static final CommandTemplate DEFAULT_PUBLIC_KEY = CommandTemplate.publicKey(0, 0);
+    private static final CommandTemplate DEFAULT_SIGN = CommandTemplate.sign(0, 0);
+
+    /**
+     * In-place equivalent of {@link #publicKeyAPDUCommand(byte[])}
+     *
+     * @return length of the command written to {@code out}
+     */
+    static int writePublicKeyAPDUCommand(final int offset, @Nonnull final byte[] out) {
+        return DEFAULT_PUBLIC_KEY.write(offset, 0, out, 0);
+    }
+
+    /**
+     * In-place equivalent of {@link #signPayloadAPDUCommand(byte[], byte[])}
+     *
+     * @return length of the command written to {@code out}
+     */
+    static int writeSignPayloadAPDUCommand(final int offset,
+                                           @Nonnull final byte[] payload,
+                                           @Nonnull final byte[] out) {
+        return DEFAULT_SIGN.write(offset, payload, out, 0);
+    }
 
     /**
      * Generates a BIP44 path with the assumption that the offset will also be
@@ -55,16 +215,8 @@ public class AionApp {
      */
     @Nonnull
     static byte[] generateBip32Path(final int offset) {
-        final long offsetExpanded = offset & 0x00000000FFFFFFFFL;
-
-        if (offsetExpanded > BIP44_MAX_OFFSET) {
-            throw new IllegalArgumentException("offset cannot be greater than BIP44_MAX_OFFSET=" + BIP44_MAX_OFFSET);
-        }
-
-        final byte[] bip44FullPath = new byte[20];
-        System.arraycopy(BIP44_PATH, 0, bip44FullPath, 0, BIP44_PATH.length);
-        final byte[] offsetBytes = toHardenedOffset(offset);
-        System.arraycopy(offsetBytes, 0, bip44FullPath, BIP44_PATH.length, offsetBytes.length);
+        final byte[] bip44FullPath = new byte[BIP32_PATH_SIZE];
+        writeBip32Path(offset, bip44FullPath, 0);
         return bip44FullPath;
     }
 
@@ -113,23 +265,123 @@ public class AionApp {
      */
     @Nullable
     public KeyAddress getPublicKey(final int offset) throws CommsException {
-        byte[] bip32Path = generateBip32Path(offset);
-        byte[] pkApdu = publicKeyAPDUCommand(bip32Path);
-        byte[] out = ledgerDevice.exchange(pkApdu);
-
-        if (out.length != 64) {
-            throw new CommsException("invalid length");
+        final PublicKeyCache cache = this.publicKeyCache;
+        if (cache != null) {
+            return cache.get(cacheScope, offset, this::loadPublicKey, ledgerDevice.isHeldByCurrentThread());
         }
+        return loadPublicKey(offset, LedgerDevice.Priority.HIGH);
+    }
 
+    @Nonnull
+    private KeyAddress loadPublicKey(final int offset, @Nonnull final LedgerDevice.Priority priority) throws CommsException {
         // output packed with first 32-bytes PK, latter 32-bytes address
-        byte[] pubKey = new byte[32];
-        byte[] address = new byte[32];
-
-        System.arraycopy(out, 0, pubKey, 0, 32);
-        System.arraycopy(out, 32, address, 0, 32);
+        byte[] pubKey = new byte[PUBLIC_KEY_SIZE];
+        byte[] address = new byte[ADDRESS_SIZE];
+        readPublicKey(offset, pubKey, address, priority);
         return new KeyAddress(pubKey, address);
     }
 
+    /**
+     * Allocation-free variant of {@link #getPublicKey(int)}, the response is
+     * copied directly from the device buffers into the provided arrays.
+     *
+     * @param offset of the given address
+     * @param publicKeyOut receives the 32-byte public key
+     * @param addressOut receives the 32-byte address
+     */
+    public void getPublicKey(final int offset,
+                             @Nonnull final byte[] publicKeyOut,
+                             @Nonnull final byte[] addressOut) throws CommsException {
+        final PublicKeyCache cache = this.publicKeyCache;
+        if (cache != null) {
+            final KeyAddress keyAddress = cache.get(cacheScope, offset, this::loadPublicKey,
+                    ledgerDevice.isHeldByCurrentThread());
+            System.arraycopy(keyAddress.getPublicKey(), 0, publicKeyOut, 0, PUBLIC_KEY_SIZE);
+            System.arraycopy(keyAddress.getAddress(), 0, addressOut, 0, ADDRESS_SIZE);
+            return;
+        }
+
+        // lookups are quick, let them ahead of anything waiting on the user
+        readPublicKey(offset, publicKeyOut, addressOut, LedgerDevice.Priority.HIGH);
+    }
+
+    /**
+     * Variant of {@link #getPublicKey(int, byte[], byte[])} reporting the
+     * status word rather than throwing on it. Always asks the device, the
+     * {@link PublicKeyCache} (if any) is bypassed.
+     *
+     * @param offset of the given address
+     * @param publicKeyOut receives the 32-byte public key, only if successful
+     * @param addressOut receives the 32-byte address, only if successful
+     * @return status word of the device's response, {@code 0x9000} if successful
+     * @throws CommsException only if the exchange itself fails
+     */
+    public int tryGetPublicKey(final int offset,
+                               @Nonnull final byte[] publicKeyOut,
+                               @Nonnull final byte[] addressOut) throws CommsException {
+        ledgerDevice.acquire(LedgerDevice.Priority.HIGH);
+        try {
+            synchronized (command) {
+                final int length = publicKeyTemplate.write(offset, 0, command, 0);
+                ledgerDevice.exchange(command, 0, length, result);
+                if (!result.isSuccess()) {
+                    return result.getStatusWord();
+                }
+
+                if (result.getDataLength() != PUBLIC_KEY_RESPONSE_SIZE) {
+                    throw new CommsException("invalid length");
+                }
+
+                final ByteBuffer data = result.getData();
+                data.get(publicKeyOut, 0, PUBLIC_KEY_SIZE);
+                data.get(addressOut, 0, ADDRESS_SIZE);
+                return result.getStatusWord();
+            }
+        } finally {
+            ledgerDevice.release();
+        }
+    }
+
+    /**
+     * @return {@code framed} if it still matches the device's framing,
+     * otherwise the public key command framed anew
+     */
+    @Nonnull
+    private CommandTemplate.Framed framePublicKey(@Nullable final CommandTemplate.Framed framed) {
+        final APDUFramer framer = ledgerDevice.getFramer();
+        return framed != null && framed.getFramer() == framer ? framed : publicKeyTemplate.frame(framer);
+    }
+
+    private void readPublicKey(final int offset,
+                               @Nonnull final byte[] publicKeyOut,
+                               @Nonnull final byte[] addressOut,
+                               @Nonnull final LedgerDevice.Priority priority) throws CommsException {
+        ledgerDevice.acquire(priority);
+        try {
+            synchronized (command) {
+                final int responseLength;
+                if (ledgerDevice.isFramed()) {
+                    // framed once, only the offset changes between lookups
+                    framedPublicKey = framePublicKey(framedPublicKey);
+                    responseLength = ledgerDevice.exchangeFramed(framedPublicKey.patch(offset), 0,
+                            framedPublicKey.getFrames(), response, 0);
+                } else {
+                    final int length = publicKeyTemplate.write(offset, 0, command, 0);
+                    responseLength = ledgerDevice.exchange(command, 0, length, response, 0);
+                }
+
+                if (responseLength != PUBLIC_KEY_RESPONSE_SIZE) {
+                    throw new CommsException("invalid length");
+                }
+
+                System.arraycopy(response, 0, publicKeyOut, 0, PUBLIC_KEY_SIZE);
+                System.arraycopy(response, PUBLIC_KEY_SIZE, addressOut, 0, ADDRESS_SIZE);
+            }
+        } finally {
+            ledgerDevice.release();
+        }
+    }
+
     /**
      * Given an index offset (indicating which account to sign from in HD Path) and
      * a payload to sign, returns the signature
@@ -141,13 +393,608 @@ public class AionApp {
      */
     @Nullable
     public byte[] signPayload(final int offset, @Nonnull final byte[] payload) throws CommsException {
+        if (payload.length > MAX_FIRST_CHUNK) {
+            return signPayload(offset, ByteBuffer.wrap(payload));
+        }
+
+        final byte[] signature = new byte[SIGNATURE_SIZE];
+        final int length = signPayload(offset, payload, signature, 0);
+        return length == SIGNATURE_SIZE ? signature : Arrays.copyOf(signature, length);
+    }
+
+    /**
+     * Allocation-free variant of {@link #signPayload(int, byte[])}, the
+     * signature is written directly into {@code signatureOut}.
+     *
+     * @param offset of the account
+     * @param payload message to be signed
+     * @param signatureOut buffer to receive the signature
+     * @param signatureOffset offset within {@code signatureOut} to write at
+     * @return length of the signature written (64)
+     * @throws CommsException
+     */
+    public int signPayload(final int offset,
+                           @Nonnull final byte[] payload,
+                           @Nonnull final byte[] signatureOut,
+                           final int signatureOffset) throws CommsException {
+        if (signatureOut.length - signatureOffset < SIGNATURE_SIZE) {
+            throw new IllegalArgumentException("signatureOut must have room for a 64-byte signature");
+        }
+
+        if (payload.length > MAX_FIRST_CHUNK) {
+            return signChunked(signTemplate, offset, new BufferChunks(ByteBuffer.wrap(payload)), signatureOut, signatureOffset,
+                    new ExchangeResult()).check().getDataLength();
+        }
 
-        if (payload.length > 0xFF) {
-            throw new IllegalArgumentException("payload cannot be greater than 255 (0xFF) bytes");
+        ledgerDevice.acquire(LedgerDevice.Priority.NORMAL);
+        try {
+            synchronized (command) {
+                final int length = signTemplate.write(offset, payload, command, 0);
+                return ledgerDevice.exchange(command, 0, length, signatureOut, signatureOffset);
+            }
+        } finally {
+            ledgerDevice.release();
         }
+    }
+
+    /**
+     * Variant of {@link #signPayload(int, byte[], byte[], int)} reporting the
+     * status word rather than throwing on it, for callers that expect the
+     * device to refuse (for example the user denying, {@code 0x6985}).
+     *
+     * @param offset of the account
+     * @param payload message to be signed, of any size
+     * @param signatureOut buffer to receive the signature, written only if successful
+     * @param signatureOffset offset within {@code signatureOut} to write at
+     * @return status word of the device's response, {@code 0x9000} if signed
+     * @throws CommsException only if the exchange itself fails
+     */
+    public int trySignPayload(final int offset,
+                              @Nonnull final byte[] payload,
+                              @Nonnull final byte[] signatureOut,
+                              final int signatureOffset) throws CommsException {
+        if (signatureOut.length - signatureOffset < SIGNATURE_SIZE) {
+            throw new IllegalArgumentException("signatureOut must have room for a 64-byte signature");
+        }
+
+        ledgerDevice.acquire(LedgerDevice.Priority.NORMAL);
+        try {
+            synchronized (command) {
+                // result is only read under the monitor, which signChunked reenters
+                if (payload.length > MAX_FIRST_CHUNK) {
+                    final BufferChunks chunks = new BufferChunks(ByteBuffer.wrap(payload));
+                    return signChunked(signTemplate, offset, chunks, signatureOut, signatureOffset, result).getStatusWord();
+                }
+
+                final int length = signTemplate.write(offset, payload, command, 0);
+                ledgerDevice.exchange(command, 0, length, result);
+                if (result.isSuccess()) {
+                    result.copyData(signatureOut, signatureOffset);
+                }
+                return result.getStatusWord();
+            }
+        } finally {
+            ledgerDevice.release();
+        }
+    }
+
+    /**
+     * Signs the remaining bytes of {@code payload}, of any size. Payloads
+     * larger than a single command are streamed over several commands
+     * straight from the buffer, without being copied out in one piece.
+     * The buffer's position is advanced to its limit.
+     *
+     * @param offset of the account
+     * @param payload message to be signed
+     * @return 64-byte signature of the payload
+     * @throws CommsException
+     */
+    @Nonnull
+    public byte[] signPayload(final int offset, @Nonnull final ByteBuffer payload) throws CommsException {
+        final byte[] signature = new byte[SIGNATURE_SIZE];
+        final int length = signChunked(signTemplate, offset, new BufferChunks(payload), signature, 0,
+                new ExchangeResult()).check().getDataLength();
+        return length == SIGNATURE_SIZE ? signature : Arrays.copyOf(signature, length);
+    }
 
-        byte[] bip32Path = generateBip32Path(offset);
-        byte[] apduCmd = signPayloadAPDUCommand(bip32Path, payload);
-        return ledgerDevice.exchange(apduCmd);
+    /**
+     * Signs the contents of {@code payload}, read until the end of the
+     * stream, of any size. The stream is read one command's worth at a time
+     * as the device consumes it.
+     *
+     * @param offset of the account
+     * @param payload message to be signed, not closed
+     * @return 64-byte signature of the payload
+     * @throws IOException if reading the payload fails, the signature is abandoned
+     * @throws CommsException
+     */
+    @Nonnull
+    public byte[] signPayload(final int offset, @Nonnull final InputStream payload) throws CommsException, IOException {
+        return signChunked(signTemplate, offset, new StreamChunks(payload));
+    }
+
+    /**
+     * Signs the remaining bytes of {@code message} as a personal message
+     * (with {@code INS_SIGN_PERSONAL_MESSAGE}), of any size. The message is
+     * streamed over as many commands as needed straight from the buffer.
+     * The buffer's position is advanced to its limit.
+     *
+     * @param offset of the account
+     * @param message message to be signed
+     * @return 64-byte signature of the message
+     * @throws CommsException
+     */
+    @Nonnull
+    public byte[] signPersonalMessage(final int offset, @Nonnull final ByteBuffer message) throws CommsException {
+        final byte[] signature = new byte[SIGNATURE_SIZE];
+        final int length = signChunked(personalMessageTemplate, offset, new BufferChunks(message), signature, 0,
+                new ExchangeResult()).check().getDataLength();
+        return length == SIGNATURE_SIZE ? signature : Arrays.copyOf(signature, length);
+    }
+
+    /**
+     * Signs the contents of {@code message}, read until the end of the
+     * stream, as a personal message. Only one command's worth of the message
+     * is held at a time, so memory use does not depend on its size.
+     *
+     * @param offset of the account
+     * @param message message to be signed, not closed
+     * @return 64-byte signature of the message
+     * @throws IOException if reading the message fails, the signature is abandoned
+     * @throws CommsException
+     */
+    @Nonnull
+    public byte[] signPersonalMessage(final int offset, @Nonnull final InputStream message) throws CommsException, IOException {
+        return signChunked(personalMessageTemplate, offset, new StreamChunks(message));
+    }
+
+    /**
+     * Variant of {@link #signPersonalMessage(int, InputStream)} reading from
+     * a channel, which must be in blocking mode
+     */
+    @Nonnull
+    public byte[] signPersonalMessage(final int offset, @Nonnull final ReadableByteChannel message) throws CommsException, IOException {
+        return signChunked(personalMessageTemplate, offset, new ChannelChunks(message));
+    }
+
+    /**
+     * Runs {@link #signChunked(CommandTemplate, int, Chunks, byte[], int, ExchangeResult)}
+     * over a source that may fail to read
+     */
+    @Nonnull
+    private byte[] signChunked(@Nonnull final CommandTemplate template,
+                               final int offset,
+                               @Nonnull final Chunks chunks) throws CommsException, IOException {
+        final byte[] signature = new byte[SIGNATURE_SIZE];
+        final int length;
+        try {
+            length = signChunked(template, offset, chunks, signature, 0, new ExchangeResult()).check().getDataLength();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return length == SIGNATURE_SIZE ? signature : Arrays.copyOf(signature, length);
+    }
+
+    /**
+     * Source of the payload of a chunked signature
+     */
+    private interface Chunks {
+        /**
+         * Fills {@code out} with up to {@code max} bytes, fewer only at the end of the payload
+         *
+         * @return number of bytes written
+         */
+        int read(@Nonnull byte[] out, int off, int max);
+
+        boolean hasMore();
+    }
+
+    private static final class BufferChunks implements Chunks {
+        private final ByteBuffer payload;
+
+        private BufferChunks(@Nonnull final ByteBuffer payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] out, final int off, final int max) {
+            final int n = Math.min(max, payload.remaining());
+            payload.get(out, off, n);
+            return n;
+        }
+
+        @Override
+        public boolean hasMore() {
+            return payload.hasRemaining();
+        }
+    }
+
+    /**
+     * Reads one byte ahead, so that the last chunk is known as it is sent
+     */
+    private static final class StreamChunks implements Chunks {
+        private final InputStream payload;
+        private int next = -2;
+
+        private StreamChunks(@Nonnull final InputStream payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] out, final int off, final int max) {
+            try {
+                int n = 0;
+                if (max > 0 && hasMore()) {
+                    out[off] = (byte) next;
+                    n = 1;
+                }
+
+                while (n < max) {
+                    final int read = payload.read(out, off + n, max - n);
+                    if (read < 0) {
+                        break;
+                    }
+                    n += read;
+                }
+                next = n == max ? payload.read() : -1;
+                return n;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasMore() {
+            if (next == -2) {
+                try {
+                    next = payload.read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next >= 0;
+        }
+    }
+
+    /**
+     * Reads one byte ahead, as {@link StreamChunks}, directly into the
+     * command buffer
+     */
+    private static final class ChannelChunks implements Chunks {
+        private final ReadableByteChannel payload;
+        private final ByteBuffer ahead = ByteBuffer.allocate(1);
+        private ByteBuffer view;
+        private boolean started;
+
+        private ChannelChunks(@Nonnull final ReadableByteChannel payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] out, final int off, final int max) {
+            if (view == null || view.array() != out) {
+                view = ByteBuffer.wrap(out);
+            }
+
+            try {
+                view.limit(off + max).position(off);
+                if (max > 0 && hasMore()) {
+                    view.put(ahead.get(0));
+                }
+                fill(view);
+
+                final int n = view.position() - off;
+                ahead.clear();
+                if (n == max) {
+                    fill(ahead);
+                }
+                ahead.flip();
+                return n;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasMore() {
+            if (!started) {
+                started = true;
+                try {
+                    ahead.clear();
+                    fill(ahead);
+                    ahead.flip();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return ahead.hasRemaining();
+        }
+
+        private void fill(@Nonnull final ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (payload.read(buf) < 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the payload from {@code chunks} as a first command (carrying the
+     * path) followed by as many continuations as needed, holding the device
+     * throughout. Only the response to the last command carries data, it is
+     * copied to {@code signatureOut} if successful. Stops at the first
+     * command answered with an unsuccessful status word.
+     *
+     * @param result receives the status word (and length) of the last response
+     * @return {@code result}
+     */
+    @Nonnull
+    private ExchangeResult signChunked(@Nonnull final CommandTemplate template,
+                                       final int offset,
+                                       @Nonnull final Chunks chunks,
+                                       @Nonnull final byte[] signatureOut,
+                                       final int signatureOffset,
+                                       @Nonnull final ExchangeResult result) throws CommsException {
+        checkOffset(offset);
+
+        ledgerDevice.acquire(LedgerDevice.Priority.NORMAL);
+        try {
+            synchronized (command) {
+                final int dataOffset = CommandTemplate.PREFIX_SIZE;
+                int n = chunks.read(command, dataOffset, MAX_FIRST_CHUNK);
+                boolean more = chunks.hasMore();
+                template.write(offset, n, command, 0);
+                command[2] = P1_FIRST;
+                command[3] = more ? P2_MORE : P2_LAST;
+                ledgerDevice.exchange(command, 0, dataOffset + n, result);
+
+                while (more && result.isSuccess()) {
+                    n = chunks.read(command, CONTINUATION_HEADER_SIZE, MAX_CHUNK);
+                    more = chunks.hasMore();
+                    command[0] = (byte) AION_APP_PREFIX;
+                    command[1] = template.getInstruction();
+                    command[2] = P1_MORE;
+                    command[3] = more ? P2_MORE : P2_LAST;
+                    command[4] = (byte) n;
+                    ledgerDevice.exchange(command, 0, CONTINUATION_HEADER_SIZE + n, result);
+                }
+
+                if (result.isSuccess()) {
+                    result.copyData(signatureOut, signatureOffset);
+                }
+                return result;
+            }
+        } finally {
+            ledgerDevice.release();
+        }
+    }
+
+    /**
+     * Signs every request in {@code requests} while holding the device for
+     * the whole batch. All commands are encoded and framed up front, so the
+     * device is driven back-to-back with no host-side work between items.
+     *
+     * A request rejected by the device (for example denied by the user)
+     * does not abort the batch, its failure is reported in its result.
+     *
+     * @param requests items to sign, payloads are limited as in
+     *                 {@link #signPayload(int, byte[], byte[], int)}
+     * @return one result per request, in the same order
+     */
+    @Nonnull
+    public List<SignResult> signBatch(@Nonnull final List<SignRequest> requests) {
+        for (SignRequest request : requests) {
+            checkOffset(request.getOffset());
+            if (request.getPayload().length > MAX_FIRST_CHUNK) {
+                throw new IllegalArgumentException("payload cannot be greater than " + MAX_FIRST_CHUNK + " bytes");
+            }
+        }
+
+        final int count = requests.size();
+        final List<SignResult> results = new ArrayList<>(count);
+        final byte[][] signatures = new byte[count][SIGNATURE_SIZE];
+
+        ledgerDevice.acquire();
+        try {
+            if (!ledgerDevice.isFramed()) {
+                signEach(requests, signatures, results);
+                return results;
+            }
+
+            // framing is fixed while the device is held
+            final APDUFramer framer = ledgerDevice.getFramer();
+            final int packetSize = framer.getPacketSize();
+
+            final int[] frames = new int[count];
+            int framedLength = 0;
+            for (int i = 0; i < count; i++) {
+                frames[i] = framer.frameCount(HEADER_SIZE + BIP32_PATH_SIZE + requests.get(i).getPayload().length);
+                framedLength += frames[i] * packetSize;
+            }
+
+            final byte[] framed = new byte[framedLength];
+            synchronized (command) {
+                int pos = 0;
+                for (SignRequest request : requests) {
+                    final int length = signTemplate.write(request.getOffset(), request.getPayload(), command, 0);
+                    pos += framer.wrap(command, 0, length, framed, pos);
+                }
+            }
+
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                final SignRequest request = requests.get(i);
+                try {
+                    final int length = ledgerDevice.exchangeFramed(framed, pos, frames[i], signatures[i], 0);
+                    results.add(new SignResult(request,
+                            length == SIGNATURE_SIZE ? signatures[i] : Arrays.copyOf(signatures[i], length), null));
+                } catch (CommsException e) {
+                    results.add(new SignResult(request, null, e));
+                }
+                pos += frames[i] * packetSize;
+            }
+        } finally {
+            ledgerDevice.release();
+        }
+        return results;
+    }
+
+    /**
+     * {@link #signBatch(List)} for transports carrying whole APDUs, the
+     * commands are encoded up front and exchanged back-to-back
+     */
+    private void signEach(@Nonnull final List<SignRequest> requests,
+                          @Nonnull final byte[][] signatures,
+                          @Nonnull final List<SignResult> results) {
+        final byte[][] commands = new byte[requests.size()][];
+        final int[] lengths = new int[requests.size()];
+        for (int i = 0; i < commands.length; i++) {
+            final SignRequest request = requests.get(i);
+            commands[i] = new byte[HEADER_SIZE + BIP32_PATH_SIZE + request.getPayload().length];
+            lengths[i] = signTemplate.write(request.getOffset(), request.getPayload(), commands[i], 0);
+        }
+
+        for (int i = 0; i < commands.length; i++) {
+            final SignRequest request = requests.get(i);
+            try {
+                final int length = ledgerDevice.exchange(commands[i], 0, lengths[i], signatures[i], 0);
+                results.add(new SignResult(request,
+                        length == SIGNATURE_SIZE ? signatures[i] : Arrays.copyOf(signatures[i], length), null));
+            } catch (CommsException e) {
+                results.add(new SignResult(request, null, e));
+            }
+        }
+    }
+
+    /**
+     * Derives the keys at offsets {@code from} (inclusive) to {@code to}
+     * (exclusive), for bulk account discovery. Keys are derived on demand as
+     * the stream is consumed, on the consuming thread, so a stream that is
+     * short-circuited or abandoned (for example once a gap limit of unused
+     * addresses has been reached) makes no further lookups and need not be
+     * closed.
+     *
+     * The lookup command is built once and only its offset patched between
+     * exchanges. The device is acquired per lookup (at
+     * {@link LedgerDevice.Priority#LOW}), so other callers are not held up
+     * for the length of the scan.
+     *
+     * A failed lookup ends the stream with a {@link CompletionException}
+     * wrapping the {@link CommsException}.
+     *
+     * @apiNote the range is bounded as in {@link #getPublicKey(int)}
+     */
+    @Nonnull
+    public Stream<KeyAddress> deriveRange(final int from, final int to) {
+        if (to < from) {
+            throw new IllegalArgumentException("to must not be less than from");
+        }
+        checkOffset(from);
+        if (to > from) {
+            checkOffset(to - 1);
+        }
+
+        return StreamSupport.stream(new KeyRange(from, to), false);
+    }
+
+    /**
+     * Source of {@link #deriveRange(int, int)}, each advance looks up the
+     * next offset
+     */
+    private final class KeyRange extends Spliterators.AbstractSpliterator<KeyAddress> {
+        private final int to;
+        private final byte[] command = new byte[CommandTemplate.PREFIX_SIZE];
+        private final byte[] response = new byte[PUBLIC_KEY_RESPONSE_SIZE];
+        private final int length;
+        private CommandTemplate.Framed framed;
+        private int next;
+
+        private KeyRange(final int from, final int to) {
+            super(to - from, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.to = to;
+            this.next = from;
+            this.length = publicKeyTemplate.write(from, 0, command, 0);
+        }
+
+        @Override
+        public boolean tryAdvance(@Nonnull final Consumer<? super KeyAddress> action) {
+            if (next >= to) {
+                return false;
+            }
+
+            final KeyAddress key;
+            try {
+                key = derive(next);
+            } catch (CommsException | RuntimeException e) {
+                next = to;
+                throw new CompletionException(e);
+            }
+
+            next++;
+            action.accept(key);
+            return true;
+        }
+
+        @Nonnull
+        private KeyAddress derive(final int offset) throws CommsException {
+            final int responseLength;
+            ledgerDevice.acquire(LedgerDevice.Priority.LOW);
+            try {
+                if (ledgerDevice.isFramed()) {
+                    framed = framePublicKey(framed);
+                    responseLength = ledgerDevice.exchangeFramed(framed.patch(offset), 0,
+                            framed.getFrames(), response, 0);
+                } else {
+                    CommandTemplate.patchOffset(offset, command, 0);
+                    responseLength = ledgerDevice.exchange(command, 0, length, response, 0);
+                }
+            } finally {
+                ledgerDevice.release();
+            }
+
+            if (responseLength != PUBLIC_KEY_RESPONSE_SIZE) {
+                throw new CommsException("invalid length");
+            }
+
+            return new KeyAddress(
+                    Arrays.copyOfRange(response, 0, PUBLIC_KEY_SIZE),
+                    Arrays.copyOfRange(response, PUBLIC_KEY_SIZE, PUBLIC_KEY_RESPONSE_SIZE));
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #getPublicKey(int)}, the exchange is
+     * performed on the device's I/O thread. Like the synchronous lookup it
+     * is queued at {@link LedgerDevice.Priority#HIGH}, ahead of pending
+     * signatures.
+     *
+     * @see LedgerDevice#submitAsync(LedgerDevice.Priority, java.util.concurrent.Callable)
+     */
+    @Nonnull
+    public CompletableFuture<KeyAddress> getPublicKeyAsync(final int offset) {
+        final PublicKeyCache cache = this.publicKeyCache;
+        if (cache != null) {
+            // consulted before the device is held, a miss may wait on a prefetch that needs it
+            return cache.getAsync(cacheScope, offset, this::loadPublicKeyAsync);
+        }
+        return loadPublicKeyAsync(offset, LedgerDevice.Priority.HIGH);
+    }
+
+    @Nonnull
+    private CompletableFuture<KeyAddress> loadPublicKeyAsync(final int offset,
+                                                             @Nonnull final LedgerDevice.Priority priority) {
+        return ledgerDevice.submitAsync(priority, () -> loadPublicKey(offset, priority));
+    }
+
+    /**
+     * Asynchronous variant of {@link #signPayload(int, byte[])}, the future
+     * completes once the user has confirmed (or denied) on the device.
+     *
+     * @see LedgerDevice#submitAsync(LedgerDevice.Priority, java.util.concurrent.Callable)
+     */
+    @Nonnull
+    public CompletableFuture<byte[]> signPayloadAsync(final int offset, @Nonnull final byte[] payload) {
+        return ledgerDevice.submitAsync(LedgerDevice.Priority.NORMAL, () -> signPayload(offset, payload));
     }
 }
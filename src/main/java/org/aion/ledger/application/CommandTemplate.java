@@ -0,0 +1,168 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.APDUFramer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Precomputed command for one instruction of the AION app over one BIP44
+ * account and change, {@code 44'/425'/account'/change'/offset'}. The header
+ * and path are built once, each command only patches in the offset (and
+ * payload, if any). Templates are immutable and may be shared.
+ *
+ * Commands without payload can also be framed once for a transport, see
+ * {@link #frame(APDUFramer)}.
+ */
+public final class CommandTemplate {
+
+    private static final int OFFSET_POS = AionApp.HEADER_SIZE + AionApp.BIP32_PATH_SIZE - 4;
+
+    // the length covers the path length byte too, hence the + 1 where it is written
+    private static final int LENGTH_POS = AionApp.HEADER_SIZE - AionApp.HEADER_PAYLOAD_SIZE;
+
+    static final int PREFIX_SIZE = AionApp.HEADER_SIZE + AionApp.BIP32_PATH_SIZE;
+
+    private final byte ins;
+    private final int account;
+    private final int change;
+    private final byte[] prefix = new byte[PREFIX_SIZE];
+
+    private CommandTemplate(final byte ins, final int account, final int change) {
+        if (account < 0 || change < 0) {
+            throw new IllegalArgumentException("account and change must be below 2^31");
+        }
+
+        this.ins = ins;
+        this.account = account;
+        this.change = change;
+
+        prefix[0] = (byte) AionApp.AION_APP_PREFIX;
+        prefix[1] = ins;
+        prefix[LENGTH_POS] = (byte) (AionApp.BIP32_PATH_SIZE + 1);
+        prefix[LENGTH_POS + 1] = (byte) (AionApp.BIP32_PATH_SIZE / 4);
+        AionApp.writeBip32Path(account, change, 0, prefix, AionApp.HEADER_SIZE);
+    }
+
+    @Nonnull
+    public static CommandTemplate publicKey(final int account, final int change) {
+        return new CommandTemplate(AionApp.INS_GET_PUBLIC_KEY, account, change);
+    }
+
+    @Nonnull
+    public static CommandTemplate sign(final int account, final int change) {
+        return new CommandTemplate(AionApp.INS_SIGN, account, change);
+    }
+
+    @Nonnull
+    public static CommandTemplate signPersonalMessage(final int account, final int change) {
+        return new CommandTemplate(AionApp.INS_SIGN_PERSONAL_MESSAGE, account, change);
+    }
+
+    /**
+     * Overwrites the offset of a command written by this template (or any
+     * other, the path is at the same position in all of them)
+     */
+    static void patchOffset(final int offset, @Nonnull final byte[] command, final int commandOffset) {
+        AionApp.checkOffset(offset);
+        AionApp.writeHardened(offset, command, commandOffset + OFFSET_POS);
+    }
+
+    public byte getInstruction() {
+        return ins;
+    }
+
+    public int getAccount() {
+        return account;
+    }
+
+    public int getChange() {
+        return change;
+    }
+
+    /**
+     * Writes the header and path for {@code offset} into {@code out}, for a
+     * payload of {@code payloadLength} bytes the caller places right after
+     *
+     * @return number of bytes written (26)
+     */
+    public int write(final int offset, final int payloadLength, @Nonnull final byte[] out, final int outOffset) {
+        if (payloadLength < 0 || payloadLength > AionApp.MAX_FIRST_CHUNK) {
+            throw new IllegalArgumentException("payload cannot be greater than " + AionApp.MAX_FIRST_CHUNK + " bytes");
+        }
+
+        System.arraycopy(prefix, 0, out, outOffset, PREFIX_SIZE);
+        out[outOffset + LENGTH_POS] = (byte) (AionApp.BIP32_PATH_SIZE + payloadLength + 1);
+        patchOffset(offset, out, outOffset);
+        return PREFIX_SIZE;
+    }
+
+    /**
+     * Writes the command for {@code offset} and {@code payload} into {@code out}
+     *
+     * @return length of the command written
+     */
+    public int write(final int offset, @Nonnull final byte[] payload, @Nonnull final byte[] out, final int outOffset) {
+        final int pos = write(offset, payload.length, out, outOffset);
+        System.arraycopy(payload, 0, out, outOffset + pos, payload.length);
+        return pos + payload.length;
+    }
+
+    /**
+     * Frames the command (without payload) for {@code framer} once, later
+     * commands only patch the offset into the framed bytes
+     */
+    @Nonnull
+    public Framed frame(@Nonnull final APDUFramer framer) {
+        return new Framed(framer);
+    }
+
+    /**
+     * A command of the template framed for a transport, not thread-safe
+     */
+    public final class Framed {
+        private final APDUFramer framer;
+        private final byte[] framed;
+        private final int frames;
+        private final int[] offsetPositions = new int[4];
+
+        private Framed(@Nonnull final APDUFramer framer) {
+            this.framer = framer;
+            this.frames = framer.frameCount(PREFIX_SIZE);
+            this.framed = new byte[frames * framer.getPacketSize()];
+            framer.wrap(prefix, 0, PREFIX_SIZE, framed, 0);
+            for (int i = 0; i < offsetPositions.length; i++) {
+                offsetPositions[i] = framer.framedPosition(OFFSET_POS + i);
+            }
+        }
+
+        @Nonnull
+        public APDUFramer getFramer() {
+            return framer;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * Patches {@code offset} into the framed command
+         *
+         * @return the framed command, {@link #getFrames()} frames long
+         */
+        @Nonnull
+        public byte[] patch(final int offset) {
+            AionApp.checkOffset(offset);
+            final int value = offset | AionApp.HARDENED;
+            framed[offsetPositions[0]] = (byte) (value >>> 24);
+            framed[offsetPositions[1]] = (byte) (value >>> 16);
+            framed[offsetPositions[2]] = (byte) (value >>> 8);
+            framed[offsetPositions[3]] = (byte) value;
+            return framed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CommandTemplate{ins=" + ins + ", path=44'/425'/" + account + "'/" + change + "'}";
+    }
+}
@@ -0,0 +1,332 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.KeyAddress;
+import org.aion.ledger.LedgerDevice;
+import org.aion.ledger.LedgerUtilities;
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.aion.ledger.exceptions.CommsTransportException;
+import org.aion.ledger.exceptions.LedgerWriteException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads {@link AionApp} requests over several Ledger devices loaded with
+ * the same seed. Each request is routed to the healthy device with the
+ * lowest expected completion time, estimated from the number of requests
+ * outstanding on it and an exponentially weighted moving average (EWMA)
+ * of its observed exchange times.
+ *
+ * A device that fails at the transport level (a failed write or read, or a
+ * closed device, see {@link CommsTransportException}) is ejected from the
+ * pool and closed; the failed
+ * request and anything still queued for that device are re-routed to the
+ * remaining devices. A device that times out is only set aside for
+ * {@link #TIMEOUT_COOLDOWN_NANOS} while the request is re-routed, and is
+ * ejected once it times out {@link #MAX_CONSECUTIVE_TIMEOUTS} times in a
+ * row. Any other failure (an error status word, a malformed response or an
+ * invalid offset) is the request's own and completes its future, the
+ * device stays in the pool.
+ */
+public class LedgerDevicePool {
+
+    /**
+     * Work to perform against a single device
+     */
+    public interface Task<T> {
+        T apply(@Nonnull AionApp app) throws CommsException;
+    }
+
+    // weight of the newest sample in the latency average
+    private static final double EWMA_ALPHA = 0.2;
+
+    static final long TIMEOUT_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    static final int MAX_CONSECUTIVE_TIMEOUTS = 3;
+
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param devices opened devices, the pool takes ownership and closes them
+     */
+    public LedgerDevicePool(@Nonnull final List<LedgerDevice> devices) {
+        for (LedgerDevice device : devices) {
+            final Member member = new Member(device);
+            members.add(member);
+            member.worker.start();
+        }
+    }
+
+    /**
+     * Opens a pool over every attached Ledger device
+     *
+     * @see LedgerUtilities#findLedgerDevices()
+     */
+    @Nonnull
+    public static LedgerDevicePool open() throws IOException {
+        return new LedgerDevicePool(LedgerUtilities.findLedgerDevices());
+    }
+
+    /**
+     * Routes {@code task} to the device expected to complete it soonest
+     *
+     * @return future completed with the result of the task, or exceptionally
+     * with a {@link CommsException} if no healthy device remains
+     */
+    @Nonnull
+    public <T> CompletableFuture<T> submit(@Nonnull final Task<T> task) {
+        final Pending<T> pending = new Pending<>(task);
+        route(pending);
+        return pending.future;
+    }
+
+    @Nonnull
+    public CompletableFuture<KeyAddress> getPublicKey(final int offset) {
+        return submit(app -> app.getPublicKey(offset));
+    }
+
+    @Nonnull
+    public CompletableFuture<byte[]> signPayload(final int offset, @Nonnull final byte[] payload) {
+        return submit(app -> app.signPayload(offset, payload));
+    }
+
+    /**
+     * @return number of healthy devices in the pool
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return current latency estimate (ns) per healthy device, {@code 0} if no exchange has completed yet
+     */
+    @Nonnull
+    public List<Double> getLatencyEstimates() {
+        final List<Double> out = new ArrayList<>();
+        for (Member member : members) {
+            out.add(member.ewmaNanos);
+        }
+        return out;
+    }
+
+    /**
+     * Closes every device, queued requests are failed
+     */
+    public void close() {
+        closed = true;
+        for (Member member : members) {
+            members.remove(member);
+            member.shutdown();
+        }
+    }
+
+    private void route(@Nonnull final Pending<?> pending) {
+        if (pending.future.isDone()) {
+            return;
+        }
+
+        if (closed) {
+            pending.future.completeExceptionally(new CommsException("pool closed"));
+            return;
+        }
+
+        final Member member = select();
+        if (member == null) {
+            pending.future.completeExceptionally(new CommsException("no healthy devices remaining in pool"));
+            return;
+        }
+
+        member.outstanding.incrementAndGet();
+        member.queue.add(pending);
+
+        // raced with ejection, the worker may not drain this entry
+        if (!member.healthy && member.queue.remove(pending)) {
+            member.outstanding.decrementAndGet();
+            route(pending);
+        }
+    }
+
+    @Nullable
+    private Member select() {
+        final Member best = select(false);
+        // devices cooling down after a timeout are a last resort
+        return best != null ? best : select(true);
+    }
+
+    @Nullable
+    private Member select(final boolean coolingDown) {
+        final long now = System.nanoTime();
+        Member best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Member member : members) {
+            if (!member.healthy || member.isCoolingDown(now) != coolingDown) {
+                continue;
+            }
+
+            // devices without samples yet are assumed to be as fast as possible
+            final double latency = Math.max(member.ewmaNanos, 1.0);
+            final double score = (member.outstanding.get() + 1) * latency;
+            if (score < bestScore) {
+                best = member;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private void eject(@Nonnull final Member member) {
+        member.healthy = false;
+        members.remove(member);
+
+        final List<Pending<?>> drained = new ArrayList<>();
+        member.queue.drainTo(drained);
+        member.outstanding.addAndGet(-drained.size());
+        member.shutdown();
+
+        for (Pending<?> pending : drained) {
+            route(pending);
+        }
+    }
+
+    private static final class Pending<T> {
+        private final Task<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Pending(@Nonnull final Task<T> task) {
+            this.task = task;
+        }
+
+        private void run(@Nonnull final AionApp app) throws Exception {
+            future.complete(task.apply(app));
+        }
+    }
+
+    private final class Member implements Runnable {
+        private final LedgerDevice device;
+        private final AionApp app;
+        private final LinkedBlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Thread worker;
+
+        private volatile boolean healthy = true;
+        private volatile double ewmaNanos;
+
+        // set aside after a timeout, only touched by the worker
+        private volatile long cooldownUntil;
+        private volatile boolean coolingDown;
+        private int consecutiveTimeouts;
+
+        private Member(@Nonnull final LedgerDevice device) {
+            this.device = device;
+            this.app = new AionApp(device);
+            this.worker = new Thread(this, "ledger-pool-" + device);
+            this.worker.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (healthy) {
+                final Pending<?> pending;
+                try {
+                    pending = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (pending.future.isDone()) {
+                    outstanding.decrementAndGet();
+                    continue;
+                }
+
+                final long start = System.nanoTime();
+                try {
+                    pending.run(app);
+                    record(System.nanoTime() - start);
+                    outstanding.decrementAndGet();
+                } catch (CommsTimeoutException e) {
+                    outstanding.decrementAndGet();
+                    timedOut(pending);
+                } catch (CommsTransportException e) {
+                    outstanding.decrementAndGet();
+                    failover(pending);
+                } catch (CommsException e) {
+                    outstanding.decrementAndGet();
+                    if (e.getResponseCode() != -1) {
+                        // the device answered with an error status word, it is healthy
+                        record(System.nanoTime() - start);
+                    }
+                    // a malformed response or a rejected request, not a problem with the transport
+                    pending.future.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    outstanding.decrementAndGet();
+                    if (e.getCause() instanceof LedgerWriteException) {
+                        // writes to the device failed, it is gone
+                        failover(pending);
+                    } else {
+                        // a mistake in the request, not a problem with the device
+                        pending.future.completeExceptionally(e);
+                    }
+                } catch (Exception e) {
+                    outstanding.decrementAndGet();
+                    pending.future.completeExceptionally(e);
+                }
+            }
+        }
+
+        private boolean isCoolingDown(final long now) {
+            return coolingDown && now - cooldownUntil < 0;
+        }
+
+        private void record(final long nanos) {
+            consecutiveTimeouts = 0;
+            coolingDown = false;
+
+            final double previous = ewmaNanos;
+            ewmaNanos = previous == 0 ? nanos : EWMA_ALPHA * nanos + (1 - EWMA_ALPHA) * previous;
+        }
+
+        /**
+         * Sets the device aside for a while rather than ejecting it, timeouts
+         * are often transient (a busy or briefly unresponsive device)
+         */
+        private void timedOut(@Nonnull final Pending<?> pending) {
+            if (++consecutiveTimeouts >= MAX_CONSECUTIVE_TIMEOUTS) {
+                failover(pending);
+                return;
+            }
+
+            cooldownUntil = System.nanoTime() + TIMEOUT_COOLDOWN_NANOS;
+            coolingDown = true;
+            route(pending);
+        }
+
+        private void failover(@Nonnull final Pending<?> pending) {
+            eject(this);
+            route(pending);
+        }
+
+        private void shutdown() {
+            healthy = false;
+            worker.interrupt();
+
+            for (Pending<?> pending : queue) {
+                pending.future.completeExceptionally(new CommsException("pool closed"));
+            }
+
+            try {
+                device.close();
+            } catch (RuntimeException e) {
+                // device may already be gone
+            }
+        }
+    }
+}
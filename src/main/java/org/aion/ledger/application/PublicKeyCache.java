@@ -0,0 +1,378 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.KeyAddress;
+import org.aion.ledger.LedgerDevice;
+import org.aion.ledger.exceptions.CommsException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded (LRU) cache of public keys, keyed by device and offset. The key
+ * at a given offset never changes for a given device (seed), so repeated
+ * lookups need not go back to the device.
+ *
+ * Concurrent lookups of the same uncached key share a single exchange.
+ * When a device is seen being walked sequentially, the next offsets can
+ * optionally be prefetched in the background, at {@link LedgerDevice.Priority#LOW}
+ * so that they never hold up other requests. Lookups never wait on a
+ * prefetch, which may be queued behind them for the device.
+ *
+ * A cache may be shared between several {@link AionApp} instances, see
+ * {@link AionApp#setPublicKeyCache(PublicKeyCache)}.
+ *
+ * @apiNote cached {@link KeyAddress} instances are shared between callers and must not be modified
+ */
+public class PublicKeyCache {
+
+    /**
+     * Fetches a key from the device on a miss
+     */
+    public interface Loader {
+        @Nonnull
+        KeyAddress load(int offset, @Nonnull LedgerDevice.Priority priority) throws CommsException;
+    }
+
+    /**
+     * Fetches a key from the device on a miss, without blocking the caller
+     */
+    public interface AsyncLoader {
+        @Nonnull
+        CompletableFuture<KeyAddress> load(int offset, @Nonnull LedgerDevice.Priority priority);
+    }
+
+    private static final class Key {
+        private final Object device;
+        private final int offset;
+
+        private Key(@Nonnull final Object device, final int offset) {
+            this.device = device;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return device == other.device && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(device) + offset;
+        }
+    }
+
+    private final int capacity;
+    private final int prefetch;
+    private final Executor prefetchExecutor;
+
+    // guarded by synchronizing on entries
+    private final LinkedHashMap<Key, KeyAddress> entries;
+    private final Map<Key, CompletableFuture<KeyAddress>> loading = new ConcurrentHashMap<>();
+    private final Map<Key, CompletableFuture<KeyAddress>> prefetching = new ConcurrentHashMap<>();
+
+    // last offset requested per device, to detect sequential access
+    private final Map<Object, Integer> lastOffsets = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+
+    /**
+     * @param capacity maximum number of keys held
+     */
+    public PublicKeyCache(final int capacity) {
+        this(capacity, 0, null);
+    }
+
+    /**
+     * @param capacity maximum number of keys held
+     * @param prefetch number of offsets to read ahead once sequential access is seen, {@code 0} to disable
+     * @param prefetchExecutor runs prefetches, if {@code null} a daemon thread is created when needed
+     */
+    public PublicKeyCache(final int capacity,
+                          final int prefetch,
+                          @Nullable final Executor prefetchExecutor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.prefetch = prefetch;
+        this.prefetchExecutor = prefetchExecutor != null || prefetch <= 0
+                ? prefetchExecutor
+                : Executors.newSingleThreadExecutor(r -> {
+                    final Thread t = new Thread(r, "ledger-key-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.entries = new LinkedHashMap<Key, KeyAddress>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, KeyAddress> eldest) {
+                if (size() > PublicKeyCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the key for {@code offset} on {@code device}, loading it
+     * through {@code loader} on a miss.
+     *
+     * @param device identity of the device, compared by reference
+     */
+    @Nonnull
+    public KeyAddress get(@Nonnull final Object device,
+                          final int offset,
+                          @Nonnull final Loader loader) throws CommsException {
+        return get(device, offset, loader, false);
+    }
+
+    /**
+     * Variant of {@link #get(Object, int, Loader)} for callers that may hold
+     * the device (see {@link LedgerDevice#acquire()}). Such a caller loads a
+     * missing key itself rather than wait on a load by another caller, which
+     * could never get hold of the device.
+     *
+     * @param holdsDevice whether the calling thread holds the device
+     */
+    @Nonnull
+    public KeyAddress get(@Nonnull final Object device,
+                          final int offset,
+                          @Nonnull final Loader loader,
+                          final boolean holdsDevice) throws CommsException {
+        final Key key = new Key(device, offset);
+        final KeyAddress cached = lookup(key);
+        maybePrefetch(device, offset, loader);
+
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        if (holdsDevice) {
+            final KeyAddress keyAddress = loader.load(offset, LedgerDevice.Priority.HIGH);
+            synchronized (entries) {
+                entries.put(key, keyAddress);
+            }
+            return keyAddress;
+        }
+        return load(key, loader, LedgerDevice.Priority.HIGH, loading);
+    }
+
+    /**
+     * Variant of {@link #get(Object, int, Loader)} that does not block, the
+     * returned future completes once the key is loaded (straight away on a hit)
+     */
+    @Nonnull
+    public CompletableFuture<KeyAddress> getAsync(@Nonnull final Object device,
+                                                  final int offset,
+                                                  @Nonnull final AsyncLoader loader) {
+        final Key key = new Key(device, offset);
+        final KeyAddress cached = lookup(key);
+        // prefetches run on their own executor, which may wait
+        maybePrefetch(device, offset, (o, priority) -> await(loader.load(o, priority)));
+
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.increment();
+
+        final CompletableFuture<KeyAddress> mine = new CompletableFuture<>();
+        final CompletableFuture<KeyAddress> existing = loading.putIfAbsent(key, mine);
+        if (existing != null) {
+            // a copy, so that cancelling it does not affect other callers
+            return existing.thenApply(Function.identity());
+        }
+
+        final KeyAddress loaded = lookup(key);
+        if (loaded != null) {
+            loading.remove(key, mine);
+            mine.complete(loaded);
+            return CompletableFuture.completedFuture(loaded);
+        }
+
+        loader.load(offset, LedgerDevice.Priority.HIGH).whenComplete((keyAddress, t) -> {
+            if (t == null) {
+                synchronized (entries) {
+                    entries.put(key, keyAddress);
+                }
+                mine.complete(keyAddress);
+            } else {
+                mine.completeExceptionally(t);
+            }
+            loading.remove(key, mine);
+        });
+        return mine.thenApply(Function.identity());
+    }
+
+    @Nullable
+    private KeyAddress lookup(@Nonnull final Key key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Loads {@code key}, sharing the exchange with any load of it already
+     * registered in {@code inFlight}
+     */
+    @Nonnull
+    private KeyAddress load(@Nonnull final Key key,
+                            @Nonnull final Loader loader,
+                            @Nonnull final LedgerDevice.Priority priority,
+                            @Nonnull final Map<Key, CompletableFuture<KeyAddress>> inFlight) throws CommsException {
+        final CompletableFuture<KeyAddress> mine = new CompletableFuture<>();
+        final CompletableFuture<KeyAddress> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            // may have been loaded since our lookup
+            KeyAddress keyAddress = lookup(key);
+            if (keyAddress == null) {
+                keyAddress = loader.load(key.offset, priority);
+                synchronized (entries) {
+                    entries.put(key, keyAddress);
+                }
+            }
+            mine.complete(keyAddress);
+            return keyAddress;
+        } catch (CommsException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    @Nonnull
+    private static KeyAddress await(@Nonnull final CompletableFuture<KeyAddress> future) throws CommsException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommsException("interrupted while waiting for public key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CommsException) {
+                throw (CommsException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CommsException("failed to load public key", e.getCause());
+        }
+    }
+
+    private void maybePrefetch(@Nonnull final Object device, final int offset, @Nonnull final Loader loader) {
+        if (prefetch <= 0) {
+            return;
+        }
+
+        final Integer last = lastOffsets.put(device, offset);
+        if (last == null || last != offset - 1) {
+            return;
+        }
+
+        for (int i = 1; i <= prefetch; i++) {
+            final int next = offset + i;
+            if (next < 0) {
+                break;
+            }
+
+            final Key key = new Key(device, next);
+            if (loading.containsKey(key) || prefetching.containsKey(key) || lookup(key) != null) {
+                continue;
+            }
+
+            prefetches.increment();
+            prefetchExecutor.execute(() -> {
+                try {
+                    // kept apart from lookups, which must not wait on a prefetch queued behind them
+                    load(key, loader, LedgerDevice.Priority.LOW, prefetching);
+                } catch (CommsException | RuntimeException e) {
+                    // best effort, a later lookup will retry
+                }
+            });
+        }
+    }
+
+    /**
+     * Discards every key cached for {@code device}
+     */
+    public void invalidate(@Nonnull final Object device) {
+        synchronized (entries) {
+            final Iterator<Key> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().device == device) {
+                    it.remove();
+                }
+            }
+        }
+        lastOffsets.remove(device);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        lastOffsets.clear();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of prefetches scheduled
+     */
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PublicKeyCache{size=" + size() + ", capacity=" + capacity
+                + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", prefetches=" + getPrefetches() + "}";
+    }
+}
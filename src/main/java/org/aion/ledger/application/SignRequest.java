@@ -0,0 +1,28 @@
+package org.aion.ledger.application;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A single item of a batch passed to {@link AionApp#signBatch(java.util.List)}
+ */
+public class SignRequest {
+    private final int offset;
+    private final byte[] payload;
+
+    /**
+     * @param offset of the account to sign with
+     * @param payload message to be signed
+     */
+    public SignRequest(final int offset, @Nonnull final byte[] payload) {
+        this.offset = offset;
+        this.payload = payload;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,49 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.exceptions.CommsException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of a single item of {@link AionApp#signBatch(java.util.List)},
+ * either a signature or the error the device responded with.
+ */
+public class SignResult {
+    private final SignRequest request;
+    private final byte[] signature;
+    private final CommsException error;
+
+    SignResult(@Nonnull final SignRequest request,
+               @Nullable final byte[] signature,
+               @Nullable final CommsException error) {
+        this.request = request;
+        this.signature = signature;
+        this.error = error;
+    }
+
+    @Nonnull
+    public SignRequest getRequest() {
+        return request;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return 64-byte signature, {@code null} if signing failed
+     */
+    @Nullable
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return the reason signing failed, {@code null} if successful
+     */
+    @Nullable
+    public CommsException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,505 @@
+package org.aion.ledger.emulator;
+
+import org.aion.ledger.APDUFramer;
+import org.aion.ledger.APDUResponseDecoder;
+import org.aion.ledger.APDUWrapper;
+import org.aion.ledger.LedgerDevice;
+import org.aion.ledger.exceptions.LedgerWriteException;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.aion.ledger.LedgerUtilities.bytesToHex;
+
+/**
+ * In-process emulation of a Ledger device running the Aion application,
+ * speaking the same HID framing as real hardware. Keys are derived in
+ * software (SLIP-0010 ed25519) from the seed given at construction.
+ *
+ * Supports {@code INS_GET_PUBLIC_KEY}, {@code INS_SIGN},
+ * {@code INS_GET_APP_CONFIGURATION} and {@code INS_SIGN_PERSONAL_MESSAGE}.
+ * Signing commands sign the blake2b-256 hash of the payload, as the Aion
+ * application does. Payloads may span several commands (see
+ * {@link org.aion.ledger.application.AionApp#signPayload(int, java.nio.ByteBuffer)}),
+ * they are hashed as they arrive.
+ *
+ * For load testing, per-packet latency and jitter can be configured along
+ * with probabilistic fault injection: wrongly published path responses
+ * ({@link #SPECIAL_FAIL_ARR}), dropped responses, corrupted frames and
+ * user denials.
+ *
+ * @implNote requires {@code org.bouncycastle:bcprov} on the classpath
+ */
+public class AionAppEmulator extends LedgerDevice {
+
+    // mirrors the instructions used by AionApp
+    private static final byte   INS_GET_PUBLIC_KEY = 0x02;
+    private static final byte   INS_SIGN = 0x04;
+    private static final byte   INS_GET_APP_CONFIGURATION = 0x06;
+    private static final byte   INS_SIGN_PERSONAL_MESSAGE = 0x08;
+    private static final int    AION_APP_PREFIX = 0xe0;
+
+    public static final int     SW_OK = 0x9000;
+    public static final int     SW_WRONG_LENGTH = 0x6700;
+    public static final int     SW_DENIED = 0x6985;
+    public static final int     SW_INCORRECT_DATA = 0x6a80;
+    public static final int     SW_WRONG_P1P2 = 0x6b00;
+    public static final int     SW_INS_NOT_SUPPORTED = 0x6d00;
+    public static final int     SW_CLA_NOT_SUPPORTED = 0x6e00;
+
+    private static final int    MAX_PATH_COMPONENTS = 10;
+
+    // payloads signed over several commands, P1 marks the first command
+    // (carrying the path) or a continuation, P2 whether more follow
+    private static final byte   P1_FIRST = 0x00;
+    private static final byte   P1_MORE = (byte) 0x80;
+    private static final byte   P2_LAST = 0x00;
+    private static final byte   P2_MORE = (byte) 0x80;
+
+    private final byte[] seed;
+    private final APDUFramer framer;
+    private final APDUResponseDecoder commandDecoder;
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private final Map<String, Ed25519PrivateKeyParameters> keys = new ConcurrentHashMap<>();
+
+    // chunked signature in progress, as on the device only one at a time, guarded by chunkLock
+    private final Object chunkLock = new Object();
+    private Blake2bDigest chunkDigest;
+    private Ed25519PrivateKeyParameters chunkKey;
+    private byte chunkIns;
+
+    private Random random = new Random();
+    private volatile long packetLatencyNanos;
+    private volatile long packetJitterNanos;
+    private volatile double wrongPathProbability;
+    private volatile double dropProbability;
+    private volatile double corruptProbability;
+    private volatile double denyProbability;
+    private volatile byte[] appConfiguration = new byte[] {0x00, 0x01, 0x00, 0x00};
+    private volatile boolean closed;
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong packetsWritten = new AtomicLong();
+    private final AtomicLong packetsRead = new AtomicLong();
+    private final AtomicLong wrongPathsInjected = new AtomicLong();
+    private final AtomicLong dropsInjected = new AtomicLong();
+    private final AtomicLong corruptionsInjected = new AtomicLong();
+    private final AtomicLong denialsInjected = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+
+    /**
+     * @param seed BIP39 seed the emulated device derives its keys from
+     */
+    public AionAppEmulator(@Nonnull final byte[] seed) {
+        this(seed, APDUFramer.USB);
+    }
+
+    public AionAppEmulator(@Nonnull final byte[] seed, @Nonnull final APDUFramer framer) {
+        super(framer);
+        this.seed = seed.clone();
+        this.framer = framer;
+        // commands are framed identically to responses
+        this.commandDecoder = framer.newDecoder();
+    }
+
+    // configuration
+
+    /**
+     * Delay applied to every packet written or read, plus a uniformly
+     * distributed jitter of up to {@code jitter}
+     */
+    public void setPacketLatency(final long latency, final long jitter, @Nonnull final TimeUnit unit) {
+        this.packetLatencyNanos = unit.toNanos(latency);
+        this.packetJitterNanos = unit.toNanos(jitter);
+    }
+
+    /**
+     * Probability of answering a command with the wrongly published path
+     * response, which the host recovers from by resetting the device
+     */
+    public void setWrongPathProbability(final double probability) {
+        this.wrongPathProbability = probability;
+    }
+
+    /**
+     * Probability of never answering a command
+     */
+    public void setDropProbability(final double probability) {
+        this.dropProbability = probability;
+    }
+
+    /**
+     * Probability of answering a command with a frame carrying an invalid tag
+     */
+    public void setCorruptProbability(final double probability) {
+        this.corruptProbability = probability;
+    }
+
+    /**
+     * Probability of the (emulated) user denying a signing request
+     */
+    public void setDenyProbability(final double probability) {
+        this.denyProbability = probability;
+    }
+
+    /**
+     * Seeds fault injection and jitter, for reproducible runs
+     */
+    public void setRandomSeed(final long randomSeed) {
+        this.random = new Random(randomSeed);
+    }
+
+    public void setAppVersion(final int major, final int minor, final int patch) {
+        this.appConfiguration = new byte[] {0x00, (byte) major, (byte) minor, (byte) patch};
+    }
+
+    // statistics
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getPacketsWritten() {
+        return packetsWritten.get();
+    }
+
+    public long getPacketsRead() {
+        return packetsRead.get();
+    }
+
+    public long getWrongPathsInjected() {
+        return wrongPathsInjected.get();
+    }
+
+    public long getDropsInjected() {
+        return dropsInjected.get();
+    }
+
+    public long getCorruptionsInjected() {
+        return corruptionsInjected.get();
+    }
+
+    public long getDenialsInjected() {
+        return denialsInjected.get();
+    }
+
+    public long getResets() {
+        return resets.get();
+    }
+
+    // transport
+
+    @Override
+    public void close() {
+        shutdownAsync();
+        this.closed = true;
+    }
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) throws LedgerWriteException {
+        if (closed) {
+            throw new LedgerWriteException("device closed");
+        }
+
+        delay();
+        packetsWritten.incrementAndGet();
+
+        try {
+            if (!commandDecoder.decode(arg, 0)) {
+                return;
+            }
+        } catch (APDUWrapper.DeserializationException e) {
+            // a real device silently discards frames it cannot parse
+            commandDecoder.reset();
+            return;
+        }
+
+        final byte[] command = commandDecoder.toByteArray();
+        commandDecoder.reset();
+        commands.incrementAndGet();
+
+        // the command went to the wrong interface, it is answered but never processed
+        if (roll(wrongPathProbability)) {
+            wrongPathsInjected.incrementAndGet();
+            pending.clear();
+            pending.add(SPECIAL_FAIL_ARR.clone());
+            return;
+        }
+        respond(process(command));
+    }
+
+    @Nullable
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        if (closed) {
+            return null;
+        }
+        return poll(waitPeriod);
+    }
+
+    @Override
+    protected int read(@Nonnull final byte[] out, final int waitPeriod) {
+        if (closed) {
+            return -1;
+        }
+
+        final byte[] packet = poll(waitPeriod);
+        if (packet == null) {
+            return 0;
+        }
+
+        final int length = Math.min(packet.length, out.length);
+        System.arraycopy(packet, 0, out, 0, length);
+        return length;
+    }
+
+    @Nullable
+    private byte[] poll(final int waitPeriod) {
+        final byte[] packet = pending.poll();
+        if (packet == null) {
+            // responses are queued as commands are written, so nothing will
+            // arrive, block for as long as the caller is prepared to
+            if (waitPeriod > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(waitPeriod));
+            }
+            return null;
+        }
+
+        delay();
+        packetsRead.incrementAndGet();
+        return packet;
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+    }
+
+    @Override
+    protected void resetLedger() {
+        resets.incrementAndGet();
+        pending.clear();
+        commandDecoder.reset();
+    }
+
+    private void delay() {
+        long nanos = packetLatencyNanos;
+        if (packetJitterNanos > 0) {
+            nanos += (long) (random.nextDouble() * packetJitterNanos);
+        }
+
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    private boolean roll(final double probability) {
+        return probability > 0 && random.nextDouble() < probability;
+    }
+
+    private void respond(@Nonnull final byte[] response) {
+        pending.clear();
+
+        if (roll(dropProbability)) {
+            dropsInjected.incrementAndGet();
+            return;
+        }
+
+        final byte[] framed = framer.wrap(response);
+        if (roll(corruptProbability)) {
+            corruptionsInjected.incrementAndGet();
+            // overwrite the tag of the first frame
+            framed[framer.isBle() ? 0 : 2] = 0x00;
+        }
+
+        final int packetSize = framer.getPacketSize();
+        for (int i = 0; i < framed.length; i += packetSize) {
+            pending.add(Arrays.copyOfRange(framed, i, i + packetSize));
+        }
+    }
+
+    // application
+
+    /**
+     * Processes an unframed APDU as the Aion application would, without any
+     * transport level fault injection. Allows the emulator to be served over
+     * transports other than HID, such as an APDU socket. Safe to call from
+     * several threads.
+     *
+     * @return the response, including the trailing status word
+     */
+    @Nonnull
+    public byte[] process(@Nonnull final byte[] command) {
+        if (command.length < 5) {
+            return status(SW_WRONG_LENGTH);
+        }
+
+        if ((command[0] & 0xFF) != AION_APP_PREFIX) {
+            return status(SW_CLA_NOT_SUPPORTED);
+        }
+
+        if ((command[4] & 0xFF) != command.length - 5) {
+            return status(SW_WRONG_LENGTH);
+        }
+
+        switch (command[1]) {
+            case INS_GET_APP_CONFIGURATION:
+                return withStatus(appConfiguration, SW_OK);
+            case INS_GET_PUBLIC_KEY: {
+                final Ed25519PrivateKeyParameters key = key(command);
+                if (key == null) {
+                    return status(SW_INCORRECT_DATA);
+                }
+
+                final byte[] publicKey = key.generatePublicKey().getEncoded();
+                final byte[] out = new byte[64];
+                System.arraycopy(publicKey, 0, out, 0, 32);
+                System.arraycopy(KeyDerivation.toAddress(publicKey), 0, out, 32, 32);
+                return withStatus(out, SW_OK);
+            }
+            case INS_SIGN:
+            case INS_SIGN_PERSONAL_MESSAGE: {
+                if (command[2] == P1_MORE) {
+                    return continueChunked(command);
+                }
+
+                if (command[2] != P1_FIRST || (command[3] != P2_LAST && command[3] != P2_MORE)) {
+                    return status(SW_WRONG_P1P2);
+                }
+
+                final Ed25519PrivateKeyParameters key = key(command);
+                if (key == null) {
+                    return status(SW_INCORRECT_DATA);
+                }
+
+                final int payloadOffset = 6 + (command[5] & 0xFF) * 4;
+                if (command[3] == P2_MORE) {
+                    synchronized (chunkLock) {
+                        // a new first command abandons any signature in progress
+                        chunkDigest = new Blake2bDigest(256);
+                        chunkDigest.update(command, payloadOffset, command.length - payloadOffset);
+                        chunkKey = key;
+                        chunkIns = command[1];
+                    }
+                    return status(SW_OK);
+                }
+
+                if (roll(denyProbability)) {
+                    denialsInjected.incrementAndGet();
+                    return status(SW_DENIED);
+                }
+
+                return withStatus(sign(key,
+                        KeyDerivation.blake2b256(command, payloadOffset, command.length - payloadOffset)), SW_OK);
+            }
+            default:
+                return status(SW_INS_NOT_SUPPORTED);
+        }
+    }
+
+    /**
+     * Parses the derivation path following the header, and returns the key for it
+     *
+     * @return the private key, or {@code null} if the path is malformed
+     */
+    @Nullable
+    private Ed25519PrivateKeyParameters key(@Nonnull final byte[] command) {
+        if (command.length < 6) {
+            return null;
+        }
+
+        final int components = command[5] & 0xFF;
+        if (components == 0 || components > MAX_PATH_COMPONENTS || command.length < 6 + components * 4) {
+            return null;
+        }
+
+        final String id = bytesToHex(Arrays.copyOfRange(command, 6, 6 + components * 4));
+        Ed25519PrivateKeyParameters key = keys.get(id);
+        if (key == null) {
+            final int[] path = new int[components];
+            for (int i = 0, pos = 6; i < components; i++, pos += 4) {
+                path[i] = ((command[pos] & 0xFF) << 24) | ((command[pos + 1] & 0xFF) << 16)
+                        | ((command[pos + 2] & 0xFF) << 8) | (command[pos + 3] & 0xFF);
+            }
+
+            try {
+                key = KeyDerivation.derivePrivateKey(seed, path);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            keys.put(id, key);
+        }
+        return key;
+    }
+
+    /**
+     * Feeds a continuation of a chunked signature, signing once the last
+     * one arrives
+     */
+    @Nonnull
+    private byte[] continueChunked(@Nonnull final byte[] command) {
+        if (command[3] != P2_LAST && command[3] != P2_MORE) {
+            return status(SW_WRONG_P1P2);
+        }
+
+        final Ed25519PrivateKeyParameters key;
+        final byte[] hash = new byte[32];
+        synchronized (chunkLock) {
+            if (chunkDigest == null || chunkIns != command[1]) {
+                return status(SW_INCORRECT_DATA);
+            }
+
+            chunkDigest.update(command, 5, command.length - 5);
+            if (command[3] == P2_MORE) {
+                return status(SW_OK);
+            }
+
+            chunkDigest.doFinal(hash, 0);
+            key = chunkKey;
+            chunkDigest = null;
+            chunkKey = null;
+        }
+
+        if (roll(denyProbability)) {
+            denialsInjected.incrementAndGet();
+            return status(SW_DENIED);
+        }
+        return withStatus(sign(key, hash), SW_OK);
+    }
+
+    @Nonnull
+    private static byte[] sign(@Nonnull final Ed25519PrivateKeyParameters key, @Nonnull final byte[] hash) {
+        final Ed25519Signer signer = new Ed25519Signer();
+        signer.init(true, key);
+        signer.update(hash, 0, hash.length);
+        return signer.generateSignature();
+    }
+
+    @Nonnull
+    private static byte[] status(final int sw) {
+        return withStatus(new byte[0], sw);
+    }
+
+    @Nonnull
+    private static byte[] withStatus(@Nonnull final byte[] data, final int sw) {
+        final byte[] out = Arrays.copyOf(data, data.length + 2);
+        out[data.length] = (byte) (sw >>> 8);
+        out[data.length + 1] = (byte) sw;
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "AionAppEmulator{framer=" + framer + "}";
+    }
+}
@@ -0,0 +1,84 @@
+package org.aion.ledger.emulator;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * SLIP-0010 ed25519 key derivation and Aion address generation, as
+ * performed by the Aion Ledger application.
+ *
+ * @see <a href="https://github.com/satoshilabs/slips/blob/master/slip-0010.md">SLIP-0010</a>
+ */
+class KeyDerivation {
+
+    private static final byte[] ED25519_CURVE = "ed25519 seed".getBytes();
+    private static final int HARDENED = 0x80000000;
+
+    // leading byte of every Aion account address
+    private static final byte AION_ADDRESS_PREFIX = (byte) 0xA0;
+
+    private KeyDerivation() {}
+
+    /**
+     * Derives the ed25519 private key for {@code path}, only hardened
+     * components are supported for ed25519.
+     *
+     * @throws IllegalArgumentException if any component is not hardened
+     */
+    @Nonnull
+    static Ed25519PrivateKeyParameters derivePrivateKey(@Nonnull final byte[] seed, @Nonnull final int[] path) {
+        byte[] node = hmacSha512(ED25519_CURVE, seed);
+
+        // layout of data: 0x00 || key (32) || index (4)
+        final byte[] data = new byte[37];
+        for (int index : path) {
+            if ((index & HARDENED) == 0) {
+                throw new IllegalArgumentException("ed25519 only supports hardened derivation");
+            }
+
+            System.arraycopy(node, 0, data, 1, 32);
+            data[33] = (byte) (index >>> 24);
+            data[34] = (byte) (index >>> 16);
+            data[35] = (byte) (index >>> 8);
+            data[36] = (byte) index;
+            node = hmacSha512(Arrays.copyOfRange(node, 32, 64), data);
+        }
+        return new Ed25519PrivateKeyParameters(node, 0);
+    }
+
+    /**
+     * @return the Aion address of {@code publicKey}, blake2b-256 of the key with the leading byte replaced by {@code 0xA0}
+     */
+    @Nonnull
+    static byte[] toAddress(@Nonnull final byte[] publicKey) {
+        final byte[] address = blake2b256(publicKey, 0, publicKey.length);
+        address[0] = AION_ADDRESS_PREFIX;
+        return address;
+    }
+
+    @Nonnull
+    static byte[] blake2b256(@Nonnull final byte[] data, final int offset, final int length) {
+        final Blake2bDigest digest = new Blake2bDigest(256);
+        digest.update(data, offset, length);
+        final byte[] out = new byte[32];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    @Nonnull
+    private static byte[] hmacSha512(@Nonnull final byte[] key, @Nonnull final byte[] data) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(key, "HmacSHA512"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
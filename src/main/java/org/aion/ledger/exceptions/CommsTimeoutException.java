@@ -0,0 +1,15 @@
+package org.aion.ledger.exceptions;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Indicates the device did not respond within the time allowed for an
+ * exchange. The exchange is abandoned, any late response is discarded
+ * before the next exchange.
+ */
+public class CommsTimeoutException extends CommsException {
+
+    public CommsTimeoutException(@Nonnull final String reason) {
+        super(reason);
+    }
+}
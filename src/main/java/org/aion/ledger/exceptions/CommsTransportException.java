@@ -0,0 +1,21 @@
+package org.aion.ledger.exceptions;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Indicates the transport to the device failed (a read or write failed,
+ * responses could not be deserialized, or the device has been closed), as
+ * opposed to the device answering with an error. The device is unlikely to
+ * serve further exchanges until it has been recovered.
+ */
+public class CommsTransportException extends CommsException {
+
+    public CommsTransportException(@Nonnull final String reason) {
+        super(reason);
+    }
+
+    public CommsTransportException(@Nonnull final String reason,
+                                   @Nonnull final Throwable cause) {
+        super(reason, cause);
+    }
+}
@@ -0,0 +1,80 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.CommsException;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class APDUFramerTest {
+
+    private static final int[] MTUS = new int[] {64, 128, 185, 256, 512};
+
+    private static byte[] command(final int dataLength) {
+        final byte[] command = new byte[5 + dataLength];
+        command[0] = (byte) 0xe0;
+        command[1] = 0x04;
+        command[4] = (byte) dataLength;
+        for (int i = 5; i < command.length; i++) {
+            command[i] = (byte) i;
+        }
+        return command;
+    }
+
+    @Test
+    public void testUsbFramerMatchesAPDUWrapper() throws Exception {
+        final byte[] command = command(200);
+        assertThat(APDUFramer.USB.wrap(command)).isEqualTo(APDUWrapper.wrapCommandAPDU(0x0101, command, false));
+    }
+
+    @Test
+    public void testRoundTripForEveryMtu() throws Exception {
+        final byte[] command = command(0xFF);
+        for (int mtu : MTUS) {
+            for (APDUFramer framer : new APDUFramer[] {new APDUFramer(0x0101, mtu, false), APDUFramer.ble(mtu)}) {
+                final byte[] framed = framer.wrap(command);
+                assertThat(framed.length).isEqualTo(framer.frameCount(command.length) * mtu);
+                assertThat(framer.unwrap(framed)).isEqualTo(command);
+            }
+        }
+    }
+
+    @Test
+    public void testLargerMtuNeedsFewerFrames() {
+        int previous = Integer.MAX_VALUE;
+        for (int mtu : MTUS) {
+            final int frames = APDUFramer.ble(mtu).frameCount(5 + 0xFF);
+            assertThat(frames).isAtMost(previous);
+            previous = frames;
+        }
+        assertThat(APDUFramer.ble(512).frameCount(5 + 0xFF)).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTinyMtu() {
+        APDUFramer.ble(4);
+    }
+
+    /**
+     * Exchanges maximum size commands over a loopback transport for each
+     * MTU, checking the number of frames per exchange. Throughput is
+     * measured by the JMH benchmarks.
+     */
+    @Test
+    public void testLoopbackFramesPerMtu() throws CommsException {
+        final byte[] command = command(0xFF);
+        final int iterations = 20;
+
+        for (int mtu : MTUS) {
+            final APDUFramer framer = APDUFramer.ble(mtu);
+            final LoopbackLedgerDevice device = new LoopbackLedgerDevice(framer);
+            final byte[] out = new byte[command.length];
+
+            for (int i = 0; i < iterations; i++) {
+                assertThat(device.exchange(command, 0, command.length, out, 0)).isEqualTo(command.length);
+            }
+
+            final long frames = device.getPacketsWritten() + device.getPacketsRead();
+            assertThat(frames).isEqualTo(2L * iterations * framer.frameCount(command.length));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.aion.ledger;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.Constants.PACKET_SIZE;
+
+public class APDUResponseDecoderTest {
+
+    // response frames share the same layout as command frames
+    private static byte[] frame(final byte[] response) {
+        return APDUWrapper.wrapCommandAPDU(0x0101, response, false);
+    }
+
+    private static byte[] response(final int length) {
+        final byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = (byte) (i * 31);
+        }
+        return out;
+    }
+
+    @Test
+    public void testDecodeFrameByFrame() throws Exception {
+        final byte[] expected = response(200);
+        final byte[] frames = frame(expected);
+        final int frameCount = frames.length / PACKET_SIZE;
+
+        final APDUResponseDecoder decoder = new APDUResponseDecoder(0x0101, false);
+        for (int i = 0; i < frameCount - 1; i++) {
+            assertThat(decoder.decode(frames, i * PACKET_SIZE)).isFalse();
+        }
+        assertThat(decoder.decode(frames, (frameCount - 1) * PACKET_SIZE)).isTrue();
+        assertThat(decoder.getResponseLength()).isEqualTo(200);
+        assertThat(decoder.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testDecoderReuse() throws Exception {
+        final APDUResponseDecoder decoder = new APDUResponseDecoder(0x0101, false);
+
+        final byte[] large = frame(response(150));
+        int offset = 0;
+        while (!decoder.decode(large, offset)) {
+            offset += PACKET_SIZE;
+        }
+
+        decoder.reset();
+        final byte[] expected = response(2);
+        assertThat(decoder.decode(frame(expected), 0)).isTrue();
+        assertThat(decoder.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test(expected = APDUWrapper.DeserializationException.class)
+    public void testDecodeOutOfOrderFrame() throws Exception {
+        final byte[] frames = frame(response(200));
+        final APDUResponseDecoder decoder = new APDUResponseDecoder(0x0101, false);
+        decoder.decode(frames, 0);
+
+        // skips sequenceIdx 1
+        decoder.decode(frames, 2 * PACKET_SIZE);
+    }
+
+    @Test(expected = APDUWrapper.DeserializationException.class)
+    public void testDecodeWrongChannel() throws Exception {
+        final APDUResponseDecoder decoder = new APDUResponseDecoder(0x0202, false);
+        decoder.decode(frame(response(10)), 0);
+    }
+
+    @Test
+    public void testUnwrapResponseAPDUIncomplete() throws Exception {
+        final byte[] frames = frame(response(200));
+        final byte[] partial = new byte[PACKET_SIZE * 2];
+        System.arraycopy(frames, 0, partial, 0, partial.length);
+        assertThat(APDUWrapper.unwrapResponseAPDU(0x0101, partial, false)).isNull();
+        assertThat(APDUWrapper.unwrapResponseAPDU(0x0101, frames, false)).isEqualTo(response(200));
+    }
+}
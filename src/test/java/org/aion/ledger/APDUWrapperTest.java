@@ -1,6 +1,9 @@
 package org.aion.ledger;
 
 import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
 import static com.google.common.truth.Truth.*;
 
 public class APDUWrapperTest {
@@ -34,4 +37,85 @@ public class APDUWrapperTest {
             final byte[] commandChunk = new byte[59];
         }
     }
+
+    @Test
+    public void testFrameCount() {
+        assertThat(APDUWrapper.frameCount(0, false)).isEqualTo(0);
+        assertThat(APDUWrapper.frameCount(57, false)).isEqualTo(1);
+        assertThat(APDUWrapper.frameCount(58, false)).isEqualTo(2);
+        assertThat(APDUWrapper.frameCount(57 + 59, false)).isEqualTo(2);
+        assertThat(APDUWrapper.frameCount(57 + 59 + 1, false)).isEqualTo(3);
+
+        // BLE frames carry no channel, so there is 2 more bytes of capacity
+        assertThat(APDUWrapper.frameCount(59, true)).isEqualTo(1);
+        assertThat(APDUWrapper.frameCount(60, true)).isEqualTo(2);
+    }
+
+    @Test
+    public void testWrapCommandAPDUIntoOffsetBuffer() {
+        final byte[] command = new byte[300];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = (byte) i;
+        }
+
+        final byte[] expected = APDUWrapper.wrapCommandAPDU(0x101, command, false);
+
+        // pre-dirty the buffer, padding must be zeroed by the encoder
+        final byte[] out = new byte[expected.length + 10];
+        java.util.Arrays.fill(out, (byte) 0xFF);
+        final int written = APDUWrapper.wrapCommandAPDU(0x101, command, 0, command.length, false, out, 10);
+        assertThat(written).isEqualTo(expected.length);
+
+        final byte[] trimmed = new byte[written];
+        System.arraycopy(out, 10, trimmed, 0, written);
+        assertThat(trimmed).isEqualTo(expected);
+    }
+
+    @Test
+    public void testWrapCommandAPDUIntoDirectBuffer() {
+        final byte[] command = new byte[200];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = (byte) (i * 7);
+        }
+
+        for (boolean ble : new boolean[] {false, true}) {
+            final byte[] expected = APDUWrapper.wrapCommandAPDU(0x101, command, ble);
+            final ByteBuffer buf = ByteBuffer.allocateDirect(expected.length);
+            assertThat(APDUWrapper.wrapCommandAPDU(0x101, command, ble, buf)).isEqualTo(expected.length);
+            assertThat(buf.hasRemaining()).isFalse();
+
+            final byte[] actual = new byte[expected.length];
+            buf.flip();
+            buf.get(actual);
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testWrapCommandAPDURespectsLimit() {
+        final byte[] backing = new byte[256];
+        final ByteBuffer slice = ByteBuffer.wrap(backing, 0, 64).slice();
+        try {
+            APDUWrapper.wrapCommandAPDU(0x101, new byte[100], false, slice);
+            throw new AssertionError("expected the buffer to be too small");
+        } catch (IllegalArgumentException e) {
+            // nothing written past the slice
+        }
+        assertThat(backing).isEqualTo(new byte[256]);
+    }
+
+    @Test
+    public void testWrapCommandAPDUBleHeader() {
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+        final byte[] out = APDUWrapper.wrapCommandAPDU(0x101, command, true);
+        assertThat(out.length).isEqualTo(64);
+
+        // tag, sequenceIdx (2), length (2), then command data
+        assertThat(out[0]).isEqualTo((byte) 0x05);
+        assertThat(out[1]).isEqualTo((byte) 0x00);
+        assertThat(out[2]).isEqualTo((byte) 0x00);
+        assertThat(out[3]).isEqualTo((byte) 0x00);
+        assertThat(out[4]).isEqualTo((byte) 0x05);
+        assertThat(out[5]).isEqualTo((byte) 0xe0);
+    }
 }
@@ -0,0 +1,99 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class ExchangeMetricsTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long micros = 0; micros < 100_000; micros += 7) {
+            final int bucket = LatencyHistogram.bucketOf(micros);
+            assertThat(LatencyHistogram.lowerBound(bucket)).isAtMost(micros);
+            assertThat(LatencyHistogram.upperBound(bucket)).isAtLeast(micros);
+        }
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1000L);
+        assertThat(snapshot.getP50Micros()).isAtLeast(500L);
+        assertThat(snapshot.getP50Micros()).isAtMost(625L);
+        assertThat(snapshot.getP99Micros()).isAtLeast(990L);
+        assertThat(snapshot.getP999Micros()).isAtMost(1000L);
+        assertThat(snapshot.getMaxMicros()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testCountsExchanges() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        for (int i = 0; i < 10; i++) {
+            app.getPublicKey(i);
+        }
+
+        emulator.setDenyProbability(1.0);
+        try {
+            app.signPayload(0, new byte[] {0x01});
+            throw new AssertionError("expected denial");
+        } catch (CommsException e) {
+            // expected
+        }
+
+        final ExchangeMetrics.Snapshot snapshot = emulator.getMetrics().snapshot();
+        assertThat(snapshot.getExchanges()).isEqualTo(11L);
+        assertThat(snapshot.getFailures()).isEqualTo(0L);
+        assertThat(snapshot.getStatusWords().get(0x9000)).isEqualTo(10L);
+        assertThat(snapshot.getStatusWords().get(AionAppEmulator.SW_DENIED)).isEqualTo(1L);
+        assertThat(snapshot.getInstructionLatency().get(0x02).getCount()).isEqualTo(10L);
+        assertThat(snapshot.getInstructionLatency().get(0x04).getCount()).isEqualTo(1L);
+        assertThat(snapshot.getPacketsWritten()).isEqualTo(emulator.getPacketsWritten());
+        assertThat(snapshot.getPacketsRead()).isEqualTo(emulator.getPacketsRead());
+    }
+
+    @Test
+    public void testCountsRecoveries() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setRandomSeed(7);
+        emulator.setWrongPathProbability(0.5);
+
+        final AionApp app = new AionApp(emulator);
+        for (int i = 0; i < 20; i++) {
+            app.getPublicKey(i);
+        }
+
+        final ExchangeMetrics metrics = emulator.getMetrics();
+        assertThat(metrics.getWrongPaths()).isEqualTo(emulator.getWrongPathsInjected());
+        assertThat(metrics.getReopens() + metrics.getResets()).isEqualTo(metrics.getWrongPaths());
+        assertThat(metrics.getExchanges()).isEqualTo(20L);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        new AionApp(emulator).getPublicKey(0);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = emulator.getMetrics().register("emulator");
+        try {
+            assertThat(server.getAttribute(name, "Exchanges")).isEqualTo(1L);
+        } finally {
+            emulator.getMetrics().unregister();
+        }
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+}
@@ -0,0 +1,146 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class KeyAddressStoreTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+
+    private static List<KeyAddress> derive(final int count) {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+        try (Stream<KeyAddress> range = app.deriveRange(0, count)) {
+            return range.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testLookupSurvivesReopen() throws Exception {
+        final List<KeyAddress> keys = derive(300);
+        final Path file = Files.createTempFile("keys", ".store");
+        Files.delete(file);
+        try {
+            try (KeyAddressStore store = KeyAddressStore.open(file, 1000)) {
+                for (int i = 0; i < keys.size(); i++) {
+                    store.put(i, keys.get(i));
+                }
+                // storing the same key again is a no-op
+                store.put(7, keys.get(7));
+                assertThat(store.size()).isEqualTo(300);
+            }
+
+            // capacity is taken from the existing file
+            try (KeyAddressStore store = KeyAddressStore.open(file, 1)) {
+                assertThat(store.getCapacity()).isEqualTo(1000);
+                assertThat(store.size()).isEqualTo(300);
+
+                final byte[] publicKey = new byte[32];
+                for (int i = 0; i < keys.size(); i++) {
+                    assertThat(store.offsetOf(keys.get(i).getAddress())).isEqualTo(i);
+                    assertThat(store.getPublicKey(keys.get(i).getAddress(), publicKey)).isEqualTo(i);
+                    assertThat(publicKey).isEqualTo(keys.get(i).getPublicKey());
+                }
+                assertThat(store.get(42)).isEqualTo(keys.get(42));
+                assertThat(store.get(500)).isNull();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testUnknownAndReplaced() throws Exception {
+        final List<KeyAddress> keys = derive(2);
+        final Path file = Files.createTempFile("keys", ".store");
+        Files.delete(file);
+        try (KeyAddressStore store = KeyAddressStore.open(file, 4)) {
+            final byte[] unknown = keys.get(1).getAddress().clone();
+            unknown[31] ^= 1;
+            store.put(0, keys.get(0));
+            assertThat(store.contains(unknown)).isFalse();
+
+            // replacing offset 0 unmaps the address stored there before
+            store.put(0, keys.get(1));
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.offsetOf(keys.get(0).getAddress())).isEqualTo(-1);
+            assertThat(store.offsetOf(keys.get(1).getAddress())).isEqualTo(0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testReplacingReusesIndex() throws Exception {
+        final List<KeyAddress> keys = derive(20);
+        final Path file = Files.createTempFile("keys", ".store");
+        Files.delete(file);
+        try (KeyAddressStore store = KeyAddressStore.open(file, 4)) {
+            // far more replacements than the index has slots
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < keys.size(); i++) {
+                    store.put(i % 4, keys.get(i));
+                }
+            }
+
+            assertThat(store.size()).isEqualTo(4);
+            for (int i = 0; i < keys.size(); i++) {
+                assertThat(store.offsetOf(keys.get(i).getAddress())).isEqualTo(i >= 16 ? i % 4 : -1);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMaxCapacityFitsMapping() {
+        final int max = KeyAddressStore.MAX_CAPACITY;
+        assertThat(KeyAddressStore.sizeFor(max, KeyAddressStore.slotsFor(max))).isAtMost((long) Integer.MAX_VALUE);
+        assertThat(KeyAddressStore.sizeFor(max + 1, KeyAddressStore.slotsFor(max + 1)))
+                .isGreaterThan((long) Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testGetPublicKeyRejectsWrongSizes() throws Exception {
+        final List<KeyAddress> keys = derive(1);
+        final Path file = Files.createTempFile("keys", ".store");
+        Files.delete(file);
+        try (KeyAddressStore store = KeyAddressStore.open(file, 4)) {
+            store.put(0, keys.get(0));
+            try {
+                store.getPublicKey(keys.get(0).getAddress(), new byte[16]);
+                throw new AssertionError("expected failure");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                store.getPublicKey(new byte[16], new byte[32]);
+                throw new AssertionError("expected failure");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testRejectsForeignFile() throws Exception {
+        final Path file = Files.createTempFile("keys", ".store");
+        try {
+            Files.write(file, new byte[128]);
+            KeyAddressStore.open(file, 4);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.aion.ledger;
+
+import com.sun.jna.WString;
+import org.hid4java.HidDevice;
+import org.hid4java.event.HidServicesEvent;
+import org.hid4java.jna.HidDeviceInfoStructure;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LedgerDeviceRegistryTest {
+
+    /**
+     * Stands in for an attached Ledger, opening it only counts the opens
+     */
+    private static final class FakeDevice extends HidDevice {
+        private int opens;
+        private boolean open;
+
+        private FakeDevice(final String path, final String serial) {
+            super(info(path, serial), null);
+        }
+
+        private static HidDeviceInfoStructure info(final String path, final String serial) {
+            final HidDeviceInfoStructure info = new HidDeviceInfoStructure();
+            info.path = path;
+            info.vendor_id = (short) Constants.VENDOR_LEDGER;
+            info.product_id = 0x0001;
+            info.serial_number = serial == null ? null : new WString(serial);
+            info.product_string = new WString(Constants.PRODUCT_LEDGER);
+            info.usage_page = (short) Constants.USAGE_PAGE_LEDGER;
+            info.interface_number = Constants.INTERFACE_NUMBER;
+            return info;
+        }
+
+        @Override
+        public boolean open() {
+            opens++;
+            open = true;
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    private static void attach(final LedgerDeviceRegistry registry, final HidDevice device) {
+        registry.hidDeviceAttached(new HidServicesEvent(device));
+    }
+
+    private static void detach(final LedgerDeviceRegistry registry, final HidDevice device) {
+        registry.hidDeviceDetached(new HidServicesEvent(device));
+    }
+
+    @Test
+    public void testAttachDetachAndClaims() {
+        final LedgerDeviceRegistry registry = new LedgerDeviceRegistry();
+        final FakeDevice second = new FakeDevice("/dev/hidraw2", "0001");
+        final FakeDevice first = new FakeDevice("/dev/hidraw1", "0001");
+        attach(registry, second);
+        attach(registry, first);
+        assertThat(registry.size()).isEqualTo(2);
+
+        // lowest path first, a claimed device is never handed out again
+        assertThat(registry.claimFirst()).isSameAs(first);
+        assertThat(registry.claimFirst()).isSameAs(second);
+        assertThat(registry.claimFirst()).isNull();
+        assertThat(registry.claimAll().isEmpty()).isTrue();
+
+        registry.release(first.getPath());
+        assertThat(registry.claimAll().size()).isEqualTo(1);
+
+        detach(registry, second);
+        assertThat(registry.get(second.getPath())).isNull();
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testResetReopensReattachedDevice() {
+        final LedgerDeviceRegistry registry = new LedgerDeviceRegistry();
+        final FakeDevice device = new FakeDevice("/dev/hidraw1", "0001");
+        attach(registry, device);
+
+        final LedgerHIDAPI ledger = new LedgerHIDAPI(registry.claimFirst(), registry);
+        detach(registry, device);
+
+        final FakeDevice reattached = new FakeDevice("/dev/hidraw1", "0001");
+        attach(registry, reattached);
+        ledger.resetLedger();
+        assertThat(reattached.opens).isEqualTo(1);
+        assertThat(registry.isClaimed(reattached.getPath())).isTrue();
+
+        // closing releases the claim, closing again does nothing
+        ledger.close();
+        ledger.close();
+        assertThat(reattached.isOpen()).isFalse();
+        assertThat(registry.isClaimed(reattached.getPath())).isFalse();
+    }
+
+    @Test
+    public void testResetFollowsRepublishedPath() {
+        final LedgerDeviceRegistry registry = new LedgerDeviceRegistry();
+        final FakeDevice device = new FakeDevice("/dev/hidraw1", "A1");
+        attach(registry, device);
+        attach(registry, new FakeDevice("/dev/hidraw5", "B2"));
+
+        final LedgerHIDAPI ledger = new LedgerHIDAPI(registry.claimFirst(), registry);
+        detach(registry, device);
+        final FakeDevice republished = new FakeDevice("/dev/hidraw3", "A1");
+        attach(registry, republished);
+
+        ledger.resetLedger();
+        assertThat(republished.opens).isEqualTo(1);
+        assertThat(registry.isClaimed("/dev/hidraw1")).isFalse();
+        assertThat(registry.isClaimed("/dev/hidraw3")).isTrue();
+        ledger.close();
+    }
+
+    @Test
+    public void testResetNeverTakesAnotherDevice() {
+        final LedgerDeviceRegistry registry = new LedgerDeviceRegistry();
+        final FakeDevice device = new FakeDevice("/dev/hidraw1", "0001");
+        final FakeDevice held = new FakeDevice("/dev/hidraw2", "0001");
+        final FakeDevice other = new FakeDevice("/dev/hidraw3", "0001");
+        attach(registry, device);
+        attach(registry, held);
+
+        final LedgerHIDAPI ledger = new LedgerHIDAPI(registry.claimFirst(), registry);
+        final LedgerHIDAPI owner = new LedgerHIDAPI(registry.claimFirst(), registry);
+        detach(registry, device);
+        attach(registry, other);
+
+        // the serial is shared, neither the held device nor the unclaimed one is ours to take
+        try {
+            ledger.resetLedger();
+            throw new AssertionError("expected failure");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage().startsWith("ledger device not attached")).isTrue();
+        }
+        assertThat(held.opens).isEqualTo(0);
+        assertThat(other.opens).isEqualTo(0);
+        assertThat(registry.isClaimed(other.getPath())).isFalse();
+
+        ledger.close();
+        owner.close();
+    }
+}
@@ -0,0 +1,335 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LedgerDeviceTest {
+
+    private static final byte[] SEED = new byte[32];
+
+    @Test
+    public void testExchangeAsync() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x01, 0x7F};
+        try {
+            assertThat(device.exchangeAsync(command).get(5, TimeUnit.SECONDS)).isEqualTo(command);
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testExchangeViewRequiresAcquire() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x01, 0x7F};
+        try {
+            device.exchangeView(command, 0, command.length);
+            throw new AssertionError("expected failure");
+        } catch (IllegalStateException e) {
+            // the view would outlive the exchange
+        }
+
+        device.acquire();
+        try {
+            assertThat(device.exchangeView(command, 0, command.length).remaining()).isEqualTo(command.length);
+        } finally {
+            device.release();
+            device.close();
+        }
+    }
+
+    @Test
+    public void testAsyncAfterClose() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        // queued behind the holder, then the device is closed before it is admitted
+        device.acquire();
+        final CompletableFuture<Boolean> queued = device.submitAsync(() -> ran.getAndSet(true));
+        device.close();
+        device.release();
+
+        final CompletableFuture<Boolean> late = device.submitAsync(() -> ran.getAndSet(true));
+        for (CompletableFuture<Boolean> future : Arrays.asList(queued, late)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected failure");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(CommsException.class);
+            }
+        }
+        assertThat(ran.get()).isFalse();
+    }
+
+    @Test
+    public void testManyOutstandingRequests() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setPacketLatency(200, 0, TimeUnit.MICROSECONDS);
+        final AionApp app = new AionApp(emulator);
+
+        try {
+            final List<CompletableFuture<KeyAddress>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(app.getPublicKeyAsync(i));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertThat(futures.get(i).get(5, TimeUnit.SECONDS).getAddress())
+                        .isEqualTo(app.getPublicKey(i).getAddress());
+            }
+        } finally {
+            emulator.close();
+        }
+    }
+
+    @Test
+    public void testExceptionalCompletion() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setDenyProbability(1.0);
+
+        try {
+            new AionApp(emulator).signPayloadAsync(0, new byte[] {0x01}).get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected denial");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CommsException.class);
+        } finally {
+            emulator.close();
+        }
+    }
+
+    @Test
+    public void testCancelBeforeStart() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        try {
+            // occupy the I/O thread, so the next task is queued
+            final CompletableFuture<Object> blocker = device.submitAsync(() -> release.await(5, TimeUnit.SECONDS));
+            final CompletableFuture<Boolean> queued = device.submitAsync(() -> ran.getAndSet(true));
+
+            assertThat(queued.cancel(true)).isTrue();
+            release.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+
+            // anything submitted afterwards runs after the cancelled task would have
+            device.submitAsync(() -> null).get(5, TimeUnit.SECONDS);
+            assertThat(ran.get()).isFalse();
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testExchangeTimeout() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setDropProbability(1.0);
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+        final byte[] response = new byte[64];
+
+        final long start = System.nanoTime();
+        try {
+            emulator.exchange(command, 0, command.length, response, 0, 200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("expected timeout");
+        } catch (CommsTimeoutException e) {
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000L);
+        }
+
+        // the device remains usable once it responds again
+        emulator.setDropProbability(0);
+        assertThat(new AionApp(emulator).getPublicKey(0)).isNotNull();
+        emulator.close();
+    }
+
+    @Test
+    public void testDeviceTimeout() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setDropProbability(1.0);
+        emulator.setTimeout(100, TimeUnit.MILLISECONDS);
+
+        try {
+            new AionApp(emulator).getPublicKey(0);
+            throw new AssertionError("expected timeout");
+        } catch (CommsTimeoutException e) {
+            assertThat(e.getResponseCode()).isEqualTo(-1);
+        }
+        emulator.close();
+    }
+
+    @Test
+    public void testCancelWhileAwaitingResponse() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setDropProbability(1.0);
+        final AionApp app = new AionApp(emulator);
+
+        try {
+            // without a timeout this would wait forever
+            final CompletableFuture<KeyAddress> hung = app.getPublicKeyAsync(0);
+            Thread.sleep(100);
+            assertThat(hung.cancel(true)).isTrue();
+
+            emulator.setDropProbability(0);
+            assertThat(app.getPublicKeyAsync(1).get(5, TimeUnit.SECONDS)).isNotNull();
+        } finally {
+            emulator.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentExchanges() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final List<Thread> threads = new ArrayList<>();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+        for (int t = 0; t < 8; t++) {
+            final byte id = (byte) t;
+            final Thread thread = new Thread(() -> {
+                final byte[] command = new byte[] {(byte) 0xe0, 0x02, 0x00, 0x00, 0x40};
+                final byte[] padded = Arrays.copyOf(command, command.length + 0x40);
+                Arrays.fill(padded, command.length, padded.length, id);
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        assertThat(device.exchange(padded)).isEqualTo(padded);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures).isEmpty();
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final List<LedgerDevice.Priority> served = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+
+        device.acquire();
+        try {
+            // queue in the reverse of the order we expect them to be served
+            final LedgerDevice.Priority[] arrivals = {
+                    LedgerDevice.Priority.LOW, LedgerDevice.Priority.NORMAL,
+                    LedgerDevice.Priority.NORMAL, LedgerDevice.Priority.HIGH};
+            for (LedgerDevice.Priority priority : arrivals) {
+                final Thread thread = new Thread(() -> {
+                    device.acquire(priority);
+                    served.add(priority);
+                    device.release();
+                });
+                threads.add(thread);
+                thread.start();
+
+                final int expected = threads.size();
+                while (device.getQueueDepth() < expected) {
+                    Thread.sleep(1);
+                }
+            }
+        } finally {
+            device.release();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(served).isEqualTo(Arrays.asList(
+                LedgerDevice.Priority.HIGH, LedgerDevice.Priority.NORMAL,
+                LedgerDevice.Priority.NORMAL, LedgerDevice.Priority.LOW));
+    }
+
+    @Test
+    public void testAsyncPriorityLanes() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final List<LedgerDevice.Priority> served = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+
+        try {
+            // asynchronous work queues for the device like anyone else
+            device.acquire();
+            try {
+                for (LedgerDevice.Priority priority : new LedgerDevice.Priority[] {
+                        LedgerDevice.Priority.LOW, LedgerDevice.Priority.NORMAL, LedgerDevice.Priority.HIGH}) {
+                    futures.add(device.submitAsync(priority, () -> served.add(priority)));
+                }
+                assertThat(device.getQueueDepth()).isEqualTo(3);
+            } finally {
+                device.release();
+            }
+
+            for (CompletableFuture<Boolean> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertThat(served).isEqualTo(Arrays.asList(
+                    LedgerDevice.Priority.HIGH, LedgerDevice.Priority.NORMAL, LedgerDevice.Priority.LOW));
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        final LoopbackLedgerDevice device = new LoopbackLedgerDevice(APDUFramer.USB);
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+        device.setQueueCapacity(1);
+
+        device.acquire();
+        boolean held = true;
+        try {
+            final CompletableFuture<byte[]> queued = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return device.exchange(command);
+                } catch (CommsException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            while (device.getQueueDepth() < 1) {
+                Thread.sleep(1);
+            }
+
+            // the queue is full, further callers are turned away immediately
+            final CompletableFuture<byte[]> rejected = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return device.exchange(command);
+                } catch (CommsException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try {
+                rejected.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected rejection");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+            }
+
+            device.release();
+            held = false;
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(command);
+        } finally {
+            if (held) {
+                device.release();
+            }
+        }
+    }
+}
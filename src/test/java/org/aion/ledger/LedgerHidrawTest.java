@@ -0,0 +1,193 @@
+package org.aion.ledger;
+
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LedgerHidrawTest {
+
+    private Pipe hostToDevice;
+    private Pipe deviceToHost;
+    private LedgerHidraw device;
+    private Thread responder;
+
+    // failures of the responder thread, reported on teardown
+    private volatile Throwable responderFailure;
+
+    @Before
+    public void setup() throws IOException {
+        hostToDevice = Pipe.open();
+        deviceToHost = Pipe.open();
+        device = new LedgerHidraw(deviceToHost.source(), hostToDevice.sink(), APDUFramer.USB);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        device.close();
+        if (responder != null) {
+            responder.interrupt();
+            responder.join(1000);
+        }
+        if (responderFailure != null) {
+            throw new AssertionError("responder failed", responderFailure);
+        }
+    }
+
+    /**
+     * Stands in for the device end of a hidraw node, echoing every command
+     */
+    private void startEcho() {
+        responder = new Thread(() -> {
+            final APDUResponseDecoder commands = APDUFramer.USB.newDecoder();
+            final ByteBuffer report = ByteBuffer.allocate(1 + Constants.PACKET_SIZE);
+            try {
+                while (true) {
+                    report.clear();
+                    while (report.hasRemaining()) {
+                        if (hostToDevice.source().read(report) < 0) {
+                            return;
+                        }
+                    }
+
+                    // written reports carry the report id ahead of the frame
+                    assertThat(report.get(0)).isEqualTo((byte) 0x00);
+                    if (commands.decode(Arrays.copyOfRange(report.array(), 1, report.capacity()), 0)) {
+                        final byte[] framed = APDUFramer.USB.wrap(LoopbackLedgerDevice.echo(commands.toByteArray()));
+                        commands.reset();
+                        final ByteBuffer out = ByteBuffer.wrap(framed);
+                        while (out.hasRemaining()) {
+                            deviceToHost.sink().write(out);
+                        }
+                    }
+                }
+            } catch (AssertionError e) {
+                responderFailure = e;
+                try {
+                    // fail the exchange waiting on us rather than leave it hanging
+                    deviceToHost.sink().close();
+                } catch (IOException ignored) {
+                    // already closed
+                }
+            } catch (Exception e) {
+                // pipe closed
+            }
+        });
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+    @Test
+    public void testExchange() throws Exception {
+        startEcho();
+        for (int length : new int[] {0, 21, 0xFF}) {
+            final byte[] command = new byte[5 + length];
+            command[0] = (byte) 0xe0;
+            command[1] = 0x02;
+            command[4] = (byte) length;
+            Arrays.fill(command, 5, command.length, (byte) 0x5A);
+            assertThat(device.exchange(command)).isEqualTo(command);
+        }
+    }
+
+    @Test
+    public void testWriteSurvivesInterrupt() throws Exception {
+        startEcho();
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+
+        // as left behind by a cancelled task, the write must not close the channel
+        Thread.currentThread().interrupt();
+        try {
+            device.write(APDUFramer.USB.wrap(command));
+        } finally {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+
+        // the channel is still open, exchanges carry on
+        assertThat(device.exchange(command)).isEqualTo(command);
+    }
+
+    @Test(expected = CommsTimeoutException.class)
+    public void testTimeoutWithoutResponse() throws Exception {
+        final byte[] command = new byte[] {(byte) 0xe0, 0x06, 0x00, 0x00, 0x00};
+        final Thread sink = new Thread(() -> {
+            // swallow commands so writes never block
+            final ByteBuffer buf = ByteBuffer.allocate(256);
+            try {
+                while (hostToDevice.source().read(buf) >= 0) {
+                    buf.clear();
+                }
+            } catch (IOException e) {
+                // pipe closed
+            }
+        });
+        sink.setDaemon(true);
+        sink.start();
+        device.exchange(command, 0, command.length, new byte[64], 0, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testSlowReaderKeepsEveryReport() throws Exception {
+        // more reports than the reader queues ahead of the caller
+        final int reports = 100;
+        final ByteBuffer written = ByteBuffer.allocate(reports * Constants.PACKET_SIZE);
+        for (int i = 0; i < reports; i++) {
+            written.put(i * Constants.PACKET_SIZE, (byte) i);
+        }
+        while (written.hasRemaining()) {
+            deviceToHost.sink().write(written);
+        }
+
+        final byte[] report = new byte[Constants.PACKET_SIZE];
+        for (int i = 0; i < reports; i++) {
+            assertThat(device.read(report, 1000)).isEqualTo(Constants.PACKET_SIZE);
+            assertThat(report[0]).isEqualTo((byte) i);
+        }
+    }
+
+    @Test
+    public void testFindDevices() throws IOException {
+        final Path sysfs = Files.createTempDirectory("hidraw");
+        try {
+            final Path dev = sysfs.resolve("dev");
+
+            // a ledger on interface 0, the same ledger's second interface, and a keyboard
+            fakeNode(sysfs, "hidraw0", "0003:00002C97:00000001", "00");
+            fakeNode(sysfs, "hidraw1", "0003:00002C97:00000001", "01");
+            fakeNode(sysfs, "hidraw2", "0003:0000046D:0000C31C", "00");
+
+            assertThat(LedgerHidraw.findDevices(sysfs, dev)).isEqualTo(Arrays.asList(dev.resolve("hidraw0")));
+        } finally {
+            try (Stream<Path> tree = Files.walk(sysfs)) {
+                for (Path path : tree.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void fakeNode(final Path sysfs,
+                                 final String name,
+                                 final String hidId,
+                                 final String interfaceNumber) throws IOException {
+        final Path node = sysfs.resolve(name);
+        final Path device = Files.createDirectories(node.resolve("device"));
+        Files.write(device.resolve("uevent"),
+                ("DRIVER=hid-generic\nHID_ID=" + hidId + "\nHID_NAME=Test\n").getBytes(StandardCharsets.US_ASCII));
+        Files.write(node.resolve("bInterfaceNumber"), (interfaceNumber + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+}
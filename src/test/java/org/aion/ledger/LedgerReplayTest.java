@@ -0,0 +1,123 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class LedgerReplayTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+
+    @Test
+    public void testReplaysSession() throws Exception {
+        final Path log = Files.createTempFile("session", ".rec");
+        try {
+            final AionAppEmulator emulator = new AionAppEmulator(SEED);
+            emulator.setRandomSeed(3);
+            emulator.setWrongPathProbability(0.3);
+            emulator.setPacketLatency(1, 0, TimeUnit.MILLISECONDS);
+
+            final List<KeyAddress> recorded = new ArrayList<>();
+            final LedgerRecorder recorder = new LedgerRecorder(emulator, log);
+            final AionApp app = new AionApp(recorder);
+            for (int i = 0; i < 10; i++) {
+                recorded.add(app.getPublicKey(i));
+            }
+            final byte[] signature = app.signPayload(0, new byte[300]);
+            recorder.close();
+            assertThat(emulator.getWrongPathsInjected()).isGreaterThan(0L);
+
+            // replayed as fast as possible, including the recoveries
+            final LedgerReplay replay = new LedgerReplay(log);
+            replay.setTimeScale(0);
+            final AionApp replayed = new AionApp(replay);
+            for (int i = 0; i < 10; i++) {
+                assertThat(replayed.getPublicKey(i)).isEqualTo(recorded.get(i));
+            }
+            assertThat(replayed.signPayload(0, new byte[300])).isEqualTo(signature);
+            assertThat(replay.isExhausted()).isTrue();
+            assertThat(replay.getMetrics().getWrongPaths()).isEqualTo(emulator.getWrongPathsInjected());
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    public void testReplaysTiming() throws Exception {
+        final Path log = Files.createTempFile("session", ".rec");
+        try {
+            final AionAppEmulator emulator = new AionAppEmulator(SEED);
+            emulator.setPacketLatency(20, 0, TimeUnit.MILLISECONDS);
+            final LedgerRecorder recorder = new LedgerRecorder(emulator, log);
+            new AionApp(recorder).getPublicKey(0);
+            recorder.close();
+
+            final LedgerReplay replay = new LedgerReplay(log);
+            final long start = System.nanoTime();
+            new AionApp(replay).getPublicKey(0);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isAtLeast(15L);
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testReadPastRecording() throws Exception {
+        final Path log = Files.createTempFile("session", ".rec");
+        try {
+            // the response is lost, only the command is recorded
+            final AionAppEmulator emulator = new AionAppEmulator(SEED);
+            emulator.setDropProbability(1.0);
+            final LedgerRecorder recorder = new LedgerRecorder(emulator, log);
+            recorder.setTimeout(50, TimeUnit.MILLISECONDS);
+            try {
+                new AionApp(recorder).getPublicKey(0);
+                throw new AssertionError("expected timeout");
+            } catch (CommsTimeoutException e) {
+                // expected
+            }
+            recorder.close();
+
+            // replayed without a timeout, the exchange fails rather than waiting forever
+            final LedgerReplay replay = new LedgerReplay(log);
+            replay.setRetryPolicy(RetryPolicy.NONE);
+            try {
+                new AionApp(replay).getPublicKey(0);
+                throw new AssertionError("expected failure");
+            } catch (CommsException e) {
+                assertThat(e instanceof CommsTimeoutException).isFalse();
+            }
+            assertThat(replay.isExhausted()).isTrue();
+            assertThat(replay.read(new byte[64], 0)).isEqualTo(-1);
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDivergence() throws Exception {
+        final Path log = Files.createTempFile("session", ".rec");
+        try {
+            final LedgerRecorder recorder = new LedgerRecorder(new AionAppEmulator(SEED), log);
+            new AionApp(recorder).getPublicKey(0);
+            recorder.close();
+
+            final LedgerReplay replay = new LedgerReplay(log);
+            replay.setTimeout(1, TimeUnit.SECONDS);
+            new AionApp(replay).getPublicKey(1);
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.application.LedgerDevicePool;
+import org.aion.ledger.application.SignRequest;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LedgerTCPTest {
+
+    private static final byte[] SEED = new byte[32];
+
+    private AionAppEmulator emulator;
+    private ServerSocket server;
+    private volatile boolean silent;
+    private final List<LedgerDevice> devices = new ArrayList<>();
+
+    /**
+     * Stub APDU socket server in front of the emulator, one thread per connection
+     */
+    @Before
+    public void setup() throws IOException {
+        emulator = new AionAppEmulator(SEED);
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        final Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    final Socket socket = server.accept();
+                    final Thread handler = new Thread(() -> serve(socket));
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(final Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(s.getInputStream());
+            final DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            while (true) {
+                final byte[] command = new byte[in.readInt()];
+                in.readFully(command);
+                if (silent) {
+                    continue;
+                }
+
+                // response data length excludes the trailing status word
+                final byte[] response = emulator.process(command);
+                out.writeInt(response.length - 2);
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection closed
+        }
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (LedgerDevice device : devices) {
+            device.close();
+        }
+        server.close();
+    }
+
+    private LedgerTCP connect() throws IOException {
+        final LedgerTCP device = new LedgerTCP(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+        devices.add(device);
+        return device;
+    }
+
+    @Test
+    public void testSameSemanticsAsHid() throws Exception {
+        final AionApp tcp = new AionApp(connect());
+        final AionApp hid = new AionApp(new AionAppEmulator(SEED));
+
+        assertThat(tcp.getPublicKey(5).getAddress()).isEqualTo(hid.getPublicKey(5).getAddress());
+        assertThat(tcp.signPayload(5, new byte[] {1, 2, 3})).isEqualTo(hid.signPayload(5, new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    public void testStatusWordError() throws Exception {
+        emulator.setDenyProbability(1.0);
+        try {
+            new AionApp(connect()).signPayload(0, new byte[] {1});
+            throw new AssertionError("expected denial");
+        } catch (CommsException e) {
+            assertThat(e.getResponseCode()).isEqualTo(AionAppEmulator.SW_DENIED);
+        }
+    }
+
+    @Test
+    public void testConcurrentConnections() throws Exception {
+        final List<LedgerDevice> connections = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            connections.add(connect());
+        }
+
+        final LedgerDevicePool pool = new LedgerDevicePool(connections);
+        try {
+            final List<CompletableFuture<KeyAddress>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(pool.getPublicKey(i % 8));
+            }
+
+            final AionApp reference = new AionApp(new AionAppEmulator(SEED));
+            for (int i = 0; i < futures.size(); i++) {
+                assertThat(futures.get(i).get(5, TimeUnit.SECONDS).getAddress())
+                        .isEqualTo(reference.getPublicKey(i % 8).getAddress());
+            }
+            assertThat(pool.size()).isEqualTo(4);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testTimeoutThenReconnect() throws Exception {
+        final LedgerTCP device = connect();
+        device.setTimeout(100, TimeUnit.MILLISECONDS);
+
+        silent = true;
+        try {
+            new AionApp(device).getPublicKey(0);
+            throw new AssertionError("expected timeout");
+        } catch (CommsTimeoutException e) {
+            // expected
+        }
+
+        // a fresh connection is made, the late response cannot be misread
+        silent = false;
+        assertThat(new AionApp(device).getPublicKey(0)).isNotNull();
+    }
+
+    @Test
+    public void testCloseDuringUntimedExchange() throws Exception {
+        final LedgerTCP device = connect();
+        silent = true;
+
+        final CompletableFuture<KeyAddress> exchange = new CompletableFuture<>();
+        final Thread caller = new Thread(() -> {
+            try {
+                exchange.complete(new AionApp(device).getPublicKey(0));
+            } catch (Exception e) {
+                exchange.completeExceptionally(e);
+            }
+        });
+        caller.setDaemon(true);
+        caller.start();
+
+        // let the exchange reach the selector before closing underneath it
+        Thread.sleep(100);
+        device.close();
+        try {
+            exchange.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CommsException.class);
+        }
+    }
+
+    @Test
+    public void testBatchOverUnframedTransport() throws Exception {
+        final AionApp app = new AionApp(connect());
+        final byte[] payload = new byte[] {4, 5, 6};
+        assertThat(app.signBatch(Arrays.asList(
+                new SignRequest(1, payload),
+                new SignRequest(2, payload))).get(1).getSignature())
+                .isEqualTo(app.signPayload(2, payload));
+    }
+}
@@ -0,0 +1,88 @@
+package org.aion.ledger;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.appendHex;
+import static org.aion.ledger.LedgerUtilities.bytesToHex;
+import static org.aion.ledger.LedgerUtilities.encodeHex;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+import static org.aion.ledger.LedgerUtilities.writeHex;
+
+public class LedgerUtilitiesTest {
+
+    private static final byte[] BYTES = new byte[] {0x00, 0x01, (byte) 0xAB, (byte) 0xCD, 0x7F, (byte) 0x80, (byte) 0xFF};
+    private static final String HEX = "0001ABCD7F80FF";
+
+    @Test
+    public void testBytesToHex() {
+        assertThat(bytesToHex(BYTES)).isEqualTo(HEX);
+        assertThat(bytesToHex(new byte[0])).isEqualTo("");
+    }
+
+    @Test
+    public void testHexToBytes() {
+        assertThat(hexToBytes(HEX)).isEqualTo(BYTES);
+        assertThat(hexToBytes(HEX.toLowerCase())).isEqualTo(BYTES);
+        assertThat(hexToBytes("0x" + HEX)).isEqualTo(BYTES);
+    }
+
+    @Test
+    public void testHexToBytesAtOffset() {
+        final byte[] out = new byte[BYTES.length + 3];
+        final String padded = "zz0x" + HEX + "zz";
+        assertThat(hexToBytes(padded, 2, HEX.length() + 2, out, 3)).isEqualTo(BYTES.length);
+
+        final byte[] written = new byte[BYTES.length];
+        System.arraycopy(out, 3, written, 0, written.length);
+        assertThat(written).isEqualTo(BYTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHexToBytesInvalidCharacter() {
+        hexToBytes("0G");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHexToBytesNonAsciiCharacter() {
+        hexToBytes("0\u0660");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHexToBytesOddLength() {
+        hexToBytes("ABC");
+    }
+
+    @Test
+    public void testEncodeHexTargets() throws Exception {
+        final StringBuilder builder = new StringBuilder("prefix:");
+        appendHex(builder, BYTES, 0, BYTES.length);
+        assertThat(builder.toString()).isEqualTo("prefix:" + HEX);
+
+        final CharBuffer heap = CharBuffer.allocate(HEX.length());
+        encodeHex(BYTES, 0, BYTES.length, heap);
+        heap.flip();
+        assertThat(heap.toString()).isEqualTo(HEX);
+
+        // direct buffers exercise the non-array path
+        final CharBuffer direct = ByteBuffer.allocateDirect(HEX.length() * 2).asCharBuffer();
+        encodeHex(BYTES, 0, BYTES.length, direct);
+        direct.flip();
+        assertThat(direct.toString()).isEqualTo(HEX);
+
+        final StringWriter writer = new StringWriter();
+        writeHex(writer, BYTES, 1, BYTES.length - 1, new char[4]);
+        assertThat(writer.toString()).isEqualTo(HEX.substring(2));
+    }
+
+    @Test
+    public void testIntAndShortToHex() {
+        assertThat(LedgerUtilities.intToHex(0x12AB)).isEqualTo("0x000012AB");
+        assertThat(LedgerUtilities.shortToHex((short) 0x6985)).isEqualTo("0x6985");
+        assertThat(LedgerUtilities.shortToHex((short) -1)).isEqualTo("0xFFFF");
+    }
+}
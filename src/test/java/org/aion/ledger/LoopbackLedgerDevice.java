@@ -0,0 +1,95 @@
+package org.aion.ledger;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * In-process transport that unframes every command written to it, hands it
+ * to a responder and queues the framed response for reading. By default the
+ * responder echoes the command back with a {@code 0x9000} status word.
+ */
+public class LoopbackLedgerDevice extends LedgerDevice {
+
+    private final APDUFramer framer;
+    private final Function<byte[], byte[]> responder;
+    private final APDUResponseDecoder commandDecoder;
+    private final ArrayDeque<byte[]> responses = new ArrayDeque<>();
+
+    private long packetsWritten;
+    private long packetsRead;
+
+    public LoopbackLedgerDevice(@Nonnull final APDUFramer framer) {
+        this(framer, LoopbackLedgerDevice::echo);
+    }
+
+    /**
+     * @param responder maps a command to its response, including the status word
+     */
+    public LoopbackLedgerDevice(@Nonnull final APDUFramer framer,
+                                @Nonnull final Function<byte[], byte[]> responder) {
+        super(framer);
+        this.framer = framer;
+        this.responder = responder;
+        // commands are framed identically to responses
+        this.commandDecoder = framer.newDecoder();
+    }
+
+    public static byte[] echo(@Nonnull final byte[] command) {
+        final byte[] response = Arrays.copyOf(command, command.length + 2);
+        response[command.length] = (byte) 0x90;
+        response[command.length + 1] = (byte) 0x00;
+        return response;
+    }
+
+    @Override
+    public void close() {
+        shutdownAsync();
+    }
+
+    @Override
+    protected void write(@Nonnull final byte[] arg) {
+        packetsWritten++;
+        try {
+            if (commandDecoder.decode(arg, 0)) {
+                final byte[] framed = framer.wrap(responder.apply(commandDecoder.toByteArray()));
+                commandDecoder.reset();
+
+                final int packetSize = framer.getPacketSize();
+                for (int i = 0; i < framed.length; i += packetSize) {
+                    responses.add(Arrays.copyOfRange(framed, i, i + packetSize));
+                }
+            }
+        } catch (APDUWrapper.DeserializationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected byte[] read(final int waitPeriod) {
+        final byte[] packet = responses.poll();
+        if (packet != null) {
+            packetsRead++;
+        }
+        return packet;
+    }
+
+    @Override
+    protected void setNonBlocking(final boolean cond) {
+    }
+
+    @Override
+    protected void resetLedger() {
+        responses.clear();
+        commandDecoder.reset();
+    }
+
+    public long getPacketsWritten() {
+        return packetsWritten;
+    }
+
+    public long getPacketsRead() {
+        return packetsRead;
+    }
+}
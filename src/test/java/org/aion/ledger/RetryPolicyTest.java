@@ -0,0 +1,152 @@
+package org.aion.ledger;
+
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RetryPolicyTest {
+
+    private static final byte[] SEED = new byte[32];
+
+    @Test
+    public void testBackoffGrowsToCap() {
+        final RetryPolicy policy = new RetryPolicy(10, 100, 2.0, 0, 1000, TimeUnit.MILLISECONDS,
+                EnumSet.of(RetryPolicy.Failure.WRONG_PATH), 0);
+        assertThat(policy.backoffNanos(0)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(policy.backoffNanos(1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(policy.backoffNanos(3)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(80));
+        assertThat(policy.backoffNanos(10)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testJitterBounds() {
+        final RetryPolicy policy = new RetryPolicy(100, 100, 1.0, 0.5, 1000, TimeUnit.MILLISECONDS,
+                EnumSet.of(RetryPolicy.Failure.WRONG_PATH), 0);
+        for (int i = 0; i < 100; i++) {
+            final long backoff = policy.backoffNanos(0);
+            assertThat(backoff).isAtLeast(TimeUnit.MILLISECONDS.toNanos(50));
+            assertThat(backoff).isAtMost(TimeUnit.MILLISECONDS.toNanos(150));
+        }
+    }
+
+    @Test
+    public void testReopenBeforeReset() throws CommsException {
+        final AtomicInteger reopens = new AtomicInteger();
+        final AionAppEmulator emulator = new AionAppEmulator(SEED) {
+            @Override
+            protected boolean reopen() {
+                reopens.incrementAndGet();
+                return true;
+            }
+        };
+        emulator.setRandomSeed(42);
+        emulator.setWrongPathProbability(0.5);
+
+        final AionApp app = new AionApp(emulator);
+        for (int i = 0; i < 20; i++) {
+            assertThat(app.getPublicKey(i)).isNotNull();
+        }
+
+        // the first recovery of each exchange reopens, any further ones reset
+        assertThat(reopens.get()).isGreaterThan(0);
+        assertThat(reopens.get() + emulator.getResets()).isEqualTo(emulator.getWrongPathsInjected());
+    }
+
+    @Test
+    public void testBudgetExhausted() {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setWrongPathProbability(1.0);
+        emulator.setRetryPolicy(new RetryPolicy(5, 20, 2.0, 0, 100, TimeUnit.MILLISECONDS,
+                EnumSet.of(RetryPolicy.Failure.WRONG_PATH), 0));
+
+        final long start = System.nanoTime();
+        try {
+            new AionApp(emulator).getPublicKey(0);
+            throw new AssertionError("expected failure");
+        } catch (CommsException e) {
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000L);
+        }
+        assertThat(emulator.getResets()).isGreaterThan(1L);
+    }
+
+    @Test
+    public void testBudgetStartsAtFirstFailure() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED) {
+            @Override
+            protected boolean reopen() {
+                setCorruptProbability(0);
+                return true;
+            }
+        };
+        // the response takes longer to arrive than the whole retry budget
+        emulator.setPacketLatency(50, 0, TimeUnit.MILLISECONDS);
+        emulator.setCorruptProbability(1.0);
+        emulator.setRetryPolicy(new RetryPolicy(0, 0, 1.0, 0, 20, TimeUnit.MILLISECONDS,
+                EnumSet.of(RetryPolicy.Failure.CORRUPT_FRAME), 1));
+
+        assertThat(new AionApp(emulator).getPublicKey(0)).isNotNull();
+        assertThat(emulator.getCorruptionsInjected()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testSignNotResentAfterFailedRead() {
+        final AtomicInteger failedReads = new AtomicInteger();
+        final AionAppEmulator emulator = new AionAppEmulator(SEED) {
+            @Override
+            protected int read(final byte[] out, final int waitPeriod) {
+                if (failedReads.getAndIncrement() == 0) {
+                    return -1;
+                }
+                return super.read(out, waitPeriod);
+            }
+        };
+
+        try {
+            new AionApp(emulator).signPayload(0, new byte[] {1, 2, 3});
+            throw new AssertionError("expected failure");
+        } catch (CommsException e) {
+            // the device may have shown the prompt already
+        }
+        assertThat(emulator.getCommands()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testIdempotentRetriesFailedRead() throws CommsException {
+        final AtomicInteger failedReads = new AtomicInteger();
+        final AionAppEmulator emulator = new AionAppEmulator(SEED) {
+            @Override
+            protected int read(final byte[] out, final int waitPeriod) {
+                if (failedReads.getAndIncrement() == 0) {
+                    return -1;
+                }
+                return super.read(out, waitPeriod);
+            }
+        };
+        emulator.setRetryPolicy(RetryPolicy.IDEMPOTENT);
+
+        assertThat(new AionApp(emulator).getPublicKey(0)).isNotNull();
+        assertThat(emulator.getCommands()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testRetryableCorruption() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setRandomSeed(7);
+        emulator.setCorruptProbability(0.5);
+        emulator.setRetryPolicy(new RetryPolicy(0, 0, 1.0, 0, 1000, TimeUnit.MILLISECONDS,
+                EnumSet.of(RetryPolicy.Failure.CORRUPT_FRAME), 0));
+
+        final AionApp app = new AionApp(emulator);
+        for (int i = 0; i < 10; i++) {
+            assertThat(app.getPublicKey(i)).isNotNull();
+        }
+        assertThat(emulator.getCorruptionsInjected()).isGreaterThan(0L);
+    }
+}
@@ -4,6 +4,8 @@ import org.aion.ledger.APDUWrapper;
 import org.aion.ledger.LedgerUtilities;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static com.google.common.truth.Truth.assertThat;
 import static org.aion.ledger.LedgerUtilities.hexToBytes;
 import static org.aion.ledger.application.AionApp.generateBip32Path;
@@ -47,4 +49,20 @@ public class AionAppTest {
         byte[] genAPDUCmd = AionApp.signPayloadAPDUCommand(bip32Path, message);
         assertThat(genAPDUCmd).isEqualTo(expectedAPDUCommand);
     }
+
+    @Test
+    public void testWriteAPDUCommandsInPlace() {
+        byte[] message = hexToBytes("f83f00a0a0185ef98ac4841900b49ad9b432af2db7235e09ec3755e5ee36e9c4947007dd89056bc75e2d6310000084aaaaaaaa8332298e8252088502540be40001");
+        byte[] out = new byte[300];
+
+        for (int offset : new int[] {0, 1, 0x1234, 0x0FFFFFFF}) {
+            byte[] path = AionApp.generateBip32Path(offset);
+
+            int length = AionApp.writePublicKeyAPDUCommand(offset, out);
+            assertThat(Arrays.copyOf(out, length)).isEqualTo(AionApp.publicKeyAPDUCommand(path));
+
+            length = AionApp.writeSignPayloadAPDUCommand(offset, message, out);
+            assertThat(Arrays.copyOf(out, length)).isEqualTo(AionApp.signPayloadAPDUCommand(path, message));
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.APDUFramer;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class CommandTemplateTest {
+
+    @Test
+    public void testDefaultPathMatchesBuilders() {
+        final CommandTemplate publicKey = CommandTemplate.publicKey(0, 0);
+        final CommandTemplate sign = CommandTemplate.sign(0, 0);
+        final byte[] message = hexToBytes("deadbeef");
+        final byte[] out = new byte[128];
+        for (int offset : new int[] {0, 1, 0x1234, 0x0FFFFFFF}) {
+            final byte[] path = AionApp.generateBip32Path(offset);
+
+            int length = publicKey.write(offset, 0, out, 0);
+            assertThat(Arrays.copyOf(out, length)).isEqualTo(AionApp.publicKeyAPDUCommand(path));
+
+            length = sign.write(offset, message, out, 0);
+            assertThat(Arrays.copyOf(out, length)).isEqualTo(AionApp.signPayloadAPDUCommand(path, message));
+        }
+    }
+
+    @Test
+    public void testCustomPath() {
+        final byte[] out = new byte[CommandTemplate.PREFIX_SIZE];
+        CommandTemplate.publicKey(3, 1).write(5, 0, out, 0);
+        assertThat(out).isEqualTo(hexToBytes("e002000015058000002c800001a9800000038000000180000005"));
+    }
+
+    @Test
+    public void testFramedPatch() {
+        final CommandTemplate template = CommandTemplate.publicKey(2, 0);
+        final byte[] command = new byte[CommandTemplate.PREFIX_SIZE];
+
+        // small packets put the offset across a frame boundary
+        for (APDUFramer framer : new APDUFramer[] {APDUFramer.USB, APDUFramer.ble(23), APDUFramer.ble(24)}) {
+            final CommandTemplate.Framed framed = template.frame(framer);
+            for (int offset : new int[] {0, 7, 0x01020304}) {
+                final int length = template.write(offset, 0, command, 0);
+                assertThat(Arrays.copyOf(framed.patch(offset), framed.getFrames() * framer.getPacketSize()))
+                        .isEqualTo(framer.wrap(Arrays.copyOf(command, length)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPayloadTooLarge() {
+        CommandTemplate.sign(0, 0).write(0, new byte[AionApp.MAX_FIRST_CHUNK + 1], new byte[512], 0);
+    }
+}
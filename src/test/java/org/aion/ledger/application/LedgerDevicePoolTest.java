@@ -0,0 +1,157 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.KeyAddress;
+import org.aion.ledger.LedgerDevice;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.aion.ledger.exceptions.CommsException;
+import org.aion.ledger.exceptions.CommsTransportException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class LedgerDevicePoolTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+
+    @Test
+    public void testRoutesAwayFromSlowDevice() throws Exception {
+        final AionAppEmulator fast = new AionAppEmulator(SEED);
+        final AionAppEmulator slow = new AionAppEmulator(SEED);
+        slow.setPacketLatency(5, 0, TimeUnit.MILLISECONDS);
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(slow, fast));
+        try {
+            final KeyAddress expected = pool.getPublicKey(0).get();
+            for (int i = 0; i < 40; i++) {
+                assertThat(pool.getPublicKey(0).get().getAddress()).isEqualTo(expected.getAddress());
+            }
+        } finally {
+            pool.close();
+        }
+
+        assertThat(fast.getCommands()).isGreaterThan(slow.getCommands());
+    }
+
+    @Test
+    public void testEjectsFailedDevice() throws Exception {
+        final AionAppEmulator healthy = new AionAppEmulator(SEED);
+        final AionAppEmulator broken = new AionAppEmulator(SEED);
+        broken.close();
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(broken, healthy));
+        try {
+            final List<CompletableFuture<KeyAddress>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(pool.getPublicKey(i));
+            }
+
+            // every request completes, including those first routed to the broken device
+            for (CompletableFuture<KeyAddress> future : futures) {
+                assertThat(future.get().getAddress()[0]).isEqualTo((byte) 0xA0);
+            }
+            assertThat(pool.size()).isEqualTo(1);
+            assertThat(healthy.getCommands()).isEqualTo(20L);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testEjectsDeviceThatFailsReads() throws Exception {
+        final AionAppEmulator healthy = new AionAppEmulator(SEED);
+        final AionAppEmulator corrupt = new AionAppEmulator(SEED);
+        corrupt.setCorruptProbability(1.0);
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(corrupt, healthy));
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertThat(pool.getPublicKey(i).get().getAddress()[0]).isEqualTo((byte) 0xA0);
+            }
+            assertThat(pool.size()).isEqualTo(1);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testMalformedResponseDoesNotEject() throws Exception {
+        // answers every command with a bare OK, too short for a public key
+        final AionAppEmulator device = new AionAppEmulator(SEED) {
+            @Override
+            public byte[] process(final byte[] command) {
+                return new byte[] {(byte) 0x90, 0x00};
+            }
+        };
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(device));
+        try {
+            pool.getPublicKey(0).get();
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CommsException.class);
+            assertThat(e.getCause() instanceof CommsTransportException).isFalse();
+        }
+
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(device.getCommands()).isEqualTo(1L);
+        pool.close();
+    }
+
+    @Test
+    public void testStatusWordErrorDoesNotEject() throws Exception {
+        final AionAppEmulator device = new AionAppEmulator(SEED);
+        device.setDenyProbability(1.0);
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(device));
+        try {
+            pool.signPayload(0, new byte[] {1, 2, 3}).get();
+            throw new AssertionError("expected denial");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CommsException.class);
+            assertThat(((CommsException) e.getCause()).getResponseCode()).isEqualTo(AionAppEmulator.SW_DENIED);
+        }
+
+        assertThat(pool.size()).isEqualTo(1);
+        pool.close();
+    }
+
+    @Test
+    public void testInvalidRequestDoesNotEject() throws Exception {
+        final AionAppEmulator device = new AionAppEmulator(SEED);
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(device));
+        try {
+            pool.getPublicKey(-1).get();
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(pool.getPublicKey(0).get().getAddress()[0]).isEqualTo((byte) 0xA0);
+        pool.close();
+    }
+
+    @Test
+    public void testFailsWhenNoDeviceRemains() throws Exception {
+        final AionAppEmulator broken = new AionAppEmulator(SEED);
+        broken.close();
+
+        final LedgerDevicePool pool = new LedgerDevicePool(Arrays.<LedgerDevice>asList(broken));
+        try {
+            pool.getPublicKey(0).get();
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CommsException.class);
+        }
+        assertThat(pool.size()).isEqualTo(0);
+    }
+}
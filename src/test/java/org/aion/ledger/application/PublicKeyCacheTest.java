@@ -0,0 +1,157 @@
+package org.aion.ledger.application;
+
+import org.aion.ledger.KeyAddress;
+import org.aion.ledger.emulator.AionAppEmulator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class PublicKeyCacheTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+
+    @Test
+    public void testHitAvoidsExchange() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final PublicKeyCache cache = new PublicKeyCache(16);
+        app.setPublicKeyCache(cache);
+
+        final KeyAddress first = app.getPublicKey(3);
+        final KeyAddress second = app.getPublicKey(3);
+
+        final byte[] publicKey = new byte[32];
+        final byte[] address = new byte[32];
+        app.getPublicKey(3, publicKey, address);
+
+        assertThat(second.getAddress()).isEqualTo(first.getAddress());
+        assertThat(address).isEqualTo(first.getAddress());
+        assertThat(publicKey).isEqualTo(first.getPublicKey());
+        assertThat(emulator.getCommands()).isEqualTo(1L);
+        assertThat(cache.getHits()).isEqualTo(2L);
+        assertThat(cache.getMisses()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testKeyedByDevice() throws Exception {
+        final AionAppEmulator a = new AionAppEmulator(SEED);
+        final AionAppEmulator b = new AionAppEmulator(hexToBytes("0f0e0d0c0b0a09080706050403020100"));
+        final PublicKeyCache cache = new PublicKeyCache(16);
+
+        final AionApp appA = new AionApp(a);
+        final AionApp appB = new AionApp(b);
+        appA.setPublicKeyCache(cache);
+        appB.setPublicKeyCache(cache);
+
+        final KeyAddress fromA = appA.getPublicKey(0);
+        final KeyAddress fromB = appB.getPublicKey(0);
+        assertThat(fromB.getAddress()).isNotEqualTo(fromA.getAddress());
+        assertThat(cache.size()).isEqualTo(2);
+
+        cache.invalidate(a);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentLookupsShareExchange() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setPacketLatency(20, 0, TimeUnit.MILLISECONDS);
+        final AionApp app = new AionApp(emulator);
+        app.setPublicKeyCache(new PublicKeyCache(16));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<CompletableFuture<KeyAddress>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                    return app.getPublicKey(7);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        start.countDown();
+
+        final byte[] expected = futures.get(0).get(5, TimeUnit.SECONDS).getAddress();
+        for (CompletableFuture<KeyAddress> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS).getAddress()).isEqualTo(expected);
+        }
+        assertThat(emulator.getCommands()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final PublicKeyCache cache = new PublicKeyCache(2);
+        app.setPublicKeyCache(cache);
+
+        app.getPublicKey(0);
+        app.getPublicKey(10);
+        app.getPublicKey(0);
+        app.getPublicKey(20); // evicts 10
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1L);
+
+        app.getPublicKey(0);
+        assertThat(emulator.getCommands()).isEqualTo(3L);
+        app.getPublicKey(10);
+        assertThat(emulator.getCommands()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testSequentialAccessPrefetches() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final PublicKeyCache cache = new PublicKeyCache(64, 4, null);
+        app.setPublicKeyCache(cache);
+
+        app.getPublicKey(0);
+        assertThat(cache.getPrefetches()).isEqualTo(0L);
+        app.getPublicKey(1);
+        assertThat(cache.getPrefetches()).isEqualTo(4L);
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.size() < 6 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(cache.size()).isEqualTo(6);
+
+        final long hits = cache.getHits();
+        for (int i = 2; i < 6; i++) {
+            app.getPublicKey(i);
+        }
+        assertThat(cache.getHits()).isEqualTo(hits + 4);
+    }
+
+    @Test(timeout = 10_000)
+    public void testHolderDoesNotWaitOnPrefetch() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final PublicKeyCache cache = new PublicKeyCache(64, 4, null);
+        app.setPublicKeyCache(cache);
+
+        emulator.acquire();
+        try {
+            app.getPublicKey(0);
+            app.getPublicKey(1);
+            assertThat(cache.getPrefetches()).isEqualTo(4L);
+
+            // the prefetch of offset 2 is now queued for the device we hold
+            Thread.sleep(100);
+            assertThat(app.getPublicKey(2)).isNotNull();
+            assertThat(app.getPublicKey(3)).isNotNull();
+        } finally {
+            emulator.release();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.aion.ledger.emulator;
+
+import org.aion.ledger.APDUFramer;
+import org.aion.ledger.KeyAddress;
+import org.aion.ledger.application.AionApp;
+import org.aion.ledger.application.SignRequest;
+import org.aion.ledger.application.SignResult;
+import org.aion.ledger.exceptions.CommsException;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.ledger.LedgerUtilities.hexToBytes;
+
+public class AionAppEmulatorTest {
+
+    private static final byte[] SEED = hexToBytes("000102030405060708090a0b0c0d0e0f");
+    private static final byte[] TRANSACTION = hexToBytes("f83f00a0a0185ef98ac4841900b49ad9b432af2db7235e09ec3755e5ee36e9c4947007dd89056bc75e2d6310000084aaaaaaaa8332298e8252088502540be40001");
+
+    private static boolean verify(final KeyAddress keyAddress, final byte[] payload, final byte[] signature) {
+        final Ed25519Signer verifier = new Ed25519Signer();
+        verifier.init(false, new Ed25519PublicKeyParameters(keyAddress.getPublicKey(), 0));
+        final byte[] hash = KeyDerivation.blake2b256(payload, 0, payload.length);
+        verifier.update(hash, 0, hash.length);
+        return verifier.verifySignature(signature);
+    }
+
+    @Test
+    public void testSlip10TestVector() {
+        // SLIP-0010 test vector 1, chain m/0H
+        assertThat(KeyDerivation.derivePrivateKey(SEED, new int[] {0x80000000}).getEncoded())
+                .isEqualTo(hexToBytes("68e0fe46dfb67e368c75379acec591dad19df3cde26e63b93a8e704f1dade7a3"));
+        assertThat(KeyDerivation.derivePrivateKey(SEED, new int[] {0x80000000}).generatePublicKey().getEncoded())
+                .isEqualTo(hexToBytes("8c8a13df77a28f3445213a0f432fde644acaa215fc72dcdf300d5efaa85d350c"));
+    }
+
+    @Test
+    public void testGetPublicKey() throws CommsException {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+        final KeyAddress first = app.getPublicKey(0);
+        final KeyAddress second = app.getPublicKey(1);
+
+        assertThat(first.getAddress()[0]).isEqualTo((byte) 0xA0);
+        assertThat(first.getAddress()).isEqualTo(KeyDerivation.toAddress(first.getPublicKey()));
+        assertThat(first.getPublicKey()).isNotEqualTo(second.getPublicKey());
+
+        // keys are deterministic for a given seed
+        assertThat(new AionApp(new AionAppEmulator(SEED)).getPublicKey(0).getPublicKey())
+                .isEqualTo(first.getPublicKey());
+    }
+
+    @Test
+    public void testSignPayload() throws CommsException {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+        final byte[] signature = app.signPayload(3, TRANSACTION);
+        assertThat(signature.length).isEqualTo(64);
+        assertThat(verify(app.getPublicKey(3), TRANSACTION, signature)).isTrue();
+        assertThat(verify(app.getPublicKey(4), TRANSACTION, signature)).isFalse();
+    }
+
+    @Test
+    public void testSignLargePayload() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final KeyAddress key = app.getPublicKey(2);
+
+        // a first chunk of 234 bytes, then continuations of 255
+        final byte[] payload = new byte[234 + 255 * 3 + 17];
+        new Random(1).nextBytes(payload);
+
+        final long before = emulator.getCommands();
+        final byte[] fromArray = app.signPayload(2, payload);
+        assertThat(emulator.getCommands() - before).isEqualTo(5L);
+        assertThat(verify(key, payload, fromArray)).isTrue();
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+        buffer.put(payload).flip();
+        assertThat(app.signPayload(2, buffer)).isEqualTo(fromArray);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        assertThat(app.signPayload(2, new ByteArrayInputStream(payload))).isEqualTo(fromArray);
+
+        final byte[] signature = new byte[64];
+        assertThat(app.signPayload(2, payload, signature, 0)).isEqualTo(64);
+        assertThat(signature).isEqualTo(fromArray);
+    }
+
+    @Test
+    public void testSignPayloadChunkBoundaries() throws Exception {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+        final KeyAddress key = app.getPublicKey(0);
+        for (int length : new int[] {0, 233, 234, 235, 234 + 255, 234 + 256}) {
+            final byte[] payload = new byte[length];
+            Arrays.fill(payload, (byte) length);
+            assertThat(verify(key, payload, app.signPayload(0, new ByteArrayInputStream(payload)))).isTrue();
+            assertThat(verify(key, payload, app.signPayload(0, ByteBuffer.wrap(payload)))).isTrue();
+        }
+    }
+
+    @Test
+    public void testSignPersonalMessage() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final KeyAddress key = app.getPublicKey(1);
+
+        final byte[] message = new byte[1 << 20];
+        new Random(2).nextBytes(message);
+
+        final byte[] fromStream = app.signPersonalMessage(1, new ByteArrayInputStream(message));
+        assertThat(verify(key, message, fromStream)).isTrue();
+        assertThat(app.signPersonalMessage(1, Channels.newChannel(new ByteArrayInputStream(message))))
+                .isEqualTo(fromStream);
+        assertThat(app.signPersonalMessage(1, ByteBuffer.wrap(message))).isEqualTo(fromStream);
+
+        final byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        assertThat(verify(key, hello, app.signPersonalMessage(1, Channels.newChannel(new ByteArrayInputStream(hello)))))
+                .isTrue();
+    }
+
+    @Test
+    public void testBleFraming() throws CommsException {
+        final AionApp usb = new AionApp(new AionAppEmulator(SEED));
+        final AionApp ble = new AionApp(new AionAppEmulator(SEED, APDUFramer.ble(156)));
+        assertThat(ble.getPublicKey(7).getAddress()).isEqualTo(usb.getPublicKey(7).getAddress());
+    }
+
+    @Test
+    public void testUserDenial() {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setDenyProbability(1.0);
+
+        try {
+            new AionApp(emulator).signPayload(0, TRANSACTION);
+            throw new AssertionError("expected denial");
+        } catch (CommsException e) {
+            assertThat(e.getResponseCode()).isEqualTo(AionAppEmulator.SW_DENIED);
+        }
+        assertThat(emulator.getDenialsInjected()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testTrySignPayload() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+        final byte[] signature = new byte[64];
+
+        // denials are reported as status words, for small and chunked payloads alike
+        emulator.setDenyProbability(1.0);
+        assertThat(app.trySignPayload(0, TRANSACTION, signature, 0)).isEqualTo(AionAppEmulator.SW_DENIED);
+        assertThat(app.trySignPayload(0, new byte[1000], signature, 0)).isEqualTo(AionAppEmulator.SW_DENIED);
+        assertThat(signature).isEqualTo(new byte[64]);
+        assertThat(emulator.getMetrics().snapshot().getStatusWords().get(AionAppEmulator.SW_DENIED)).isEqualTo(2L);
+
+        emulator.setDenyProbability(0.0);
+        assertThat(app.trySignPayload(0, TRANSACTION, signature, 0)).isEqualTo(AionAppEmulator.SW_OK);
+        assertThat(verify(app.getPublicKey(0), TRANSACTION, signature)).isTrue();
+        assertThat(app.trySignPayload(1, new byte[1000], signature, 0)).isEqualTo(AionAppEmulator.SW_OK);
+        assertThat(verify(app.getPublicKey(1), new byte[1000], signature)).isTrue();
+    }
+
+    @Test
+    public void testCustomAccount() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator, 1, 0);
+        final KeyAddress key = app.getPublicKey(0);
+        assertThat(key).isNotEqualTo(new AionApp(emulator).getPublicKey(0));
+        assertThat(verify(key, TRANSACTION, app.signPayload(0, TRANSACTION))).isTrue();
+        assertThat(app.deriveRange(0, 1).findFirst().get()).isEqualTo(key);
+    }
+
+    @Test
+    public void testTryGetPublicKey() throws CommsException {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+        final byte[] publicKey = new byte[32];
+        final byte[] address = new byte[32];
+        assertThat(app.tryGetPublicKey(3, publicKey, address)).isEqualTo(AionAppEmulator.SW_OK);
+        assertThat(new KeyAddress(publicKey, address)).isEqualTo(app.getPublicKey(3));
+    }
+
+    @Test
+    public void testSignBatch() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setRandomSeed(7);
+        emulator.setDenyProbability(0.3);
+        final AionApp app = new AionApp(emulator);
+
+        final List<SignRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new SignRequest(i, TRANSACTION));
+        }
+
+        final List<SignResult> results = app.signBatch(requests);
+        assertThat(results.size()).isEqualTo(requests.size());
+
+        // denied items are reported individually, the rest of the batch is signed
+        int denied = 0;
+        for (int i = 0; i < results.size(); i++) {
+            final SignResult result = results.get(i);
+            assertThat(result.getRequest()).isSameAs(requests.get(i));
+            if (result.isSuccess()) {
+                assertThat(verify(app.getPublicKey(i), TRANSACTION, result.getSignature())).isTrue();
+            } else {
+                assertThat(result.getError().getResponseCode()).isEqualTo(AionAppEmulator.SW_DENIED);
+                denied++;
+            }
+        }
+        assertThat((long) denied).isEqualTo(emulator.getDenialsInjected());
+        assertThat(denied).isLessThan(results.size());
+    }
+
+    @Test
+    public void testRecoversFromWrongPath() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setRandomSeed(42);
+        emulator.setWrongPathProbability(0.5);
+
+        final AionApp app = new AionApp(emulator);
+        for (int i = 0; i < 20; i++) {
+            assertThat(app.getPublicKey(i)).isNotNull();
+        }
+        assertThat(emulator.getWrongPathsInjected()).isGreaterThan(0L);
+        assertThat(emulator.getResets()).isEqualTo(emulator.getWrongPathsInjected());
+    }
+
+    @Test(expected = CommsException.class)
+    public void testCorruptFrameFails() throws CommsException {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.setCorruptProbability(1.0);
+        new AionApp(emulator).getPublicKey(0);
+    }
+
+    @Test
+    public void testDeriveRange() throws CommsException {
+        final AionApp app = new AionApp(new AionAppEmulator(SEED));
+
+        final List<KeyAddress> keys;
+        try (Stream<KeyAddress> range = app.deriveRange(5, 45)) {
+            keys = range.collect(Collectors.toList());
+        }
+
+        assertThat(keys.size()).isEqualTo(40);
+        for (int i = 0; i < keys.size(); i += 13) {
+            assertThat(keys.get(i).getAddress()).isEqualTo(app.getPublicKey(5 + i).getAddress());
+        }
+        assertThat(app.deriveRange(3, 3).count()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testDeriveRangeDerivesOnDemand() throws Exception {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        final AionApp app = new AionApp(emulator);
+
+        // stand in for a gap limit: stop after the first few keys, without closing the stream
+        final Iterator<KeyAddress> it = app.deriveRange(0, 10_000).iterator();
+        for (int i = 0; i < 5; i++) {
+            assertThat(it.next()).isNotNull();
+        }
+        assertThat(emulator.getCommands()).isEqualTo(5L);
+
+        assertThat(app.deriveRange(0, 10_000).limit(3).collect(Collectors.toList()).size()).isEqualTo(3);
+        assertThat(emulator.getCommands()).isEqualTo(8L);
+    }
+
+    @Test(expected = CompletionException.class)
+    public void testDeriveRangeFailure() {
+        final AionAppEmulator emulator = new AionAppEmulator(SEED);
+        emulator.close();
+        new AionApp(emulator).deriveRange(0, 10).count();
+    }
+}